@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.nio.channels.FileChannel;
 
 import simpledb.Predicate.Op;
@@ -27,6 +29,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final PageFileChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -41,6 +44,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new PageFileChannel(f);
 	}
 
 	/**
@@ -81,13 +85,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				byte pageBuf[] = channel.getReadBuffer(BTreeRootPtrPage.getPageSize());
+				int retval = channel.read(0, pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -100,13 +102,8 @@ public class BTreeFile implements DbFile {
 				return p;
 			}
 			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				byte pageBuf[] = channel.getReadBuffer(BufferPool.getPageSize());
+				int retval = channel.read(pageOffset(id.pageNumber()), pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -130,17 +127,105 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
+		}
+	}
+
+	/**
+	 * Rebuild a page of this file from its data, see DbFile.pageFromData
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the data of the page
+	 * @return the page
+	 */
+	public Page pageFromData(PageId pid, byte[] data) {
+		BTreePageId id = (BTreePageId) pid;
+		try {
+			switch (id.pgcateg()) {
+			case BTreePageId.ROOT_PTR:
+				return new BTreeRootPtrPage(id, data);
+			case BTreePageId.INTERNAL:
+				return new BTreeInternalPage(id, data, keyField);
+			case BTreePageId.LEAF:
+				return new BTreeLeafPage(id, data, keyField);
+			default:
+				return new BTreeHeaderPage(id, data);
 			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Start reading a page from disk without waiting for the read, so that
+	 * an index lookup or scan can have several reads outstanding.
+	 * 
+	 * @param pid - the id of the page to read
+	 * @return a future of the page, which completes exceptionally with an
+	 * IllegalArgumentException if the page is past the end of the file
+	 */
+	public CompletableFuture<Page> readPageAsync(PageId pid) {
+		BTreePageId id = (BTreePageId) pid;
+		boolean rootPtr = id.pgcateg() == BTreePageId.ROOT_PTR;
+		int pageSize = rootPtr ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+		byte pageBuf[] = new byte[pageSize];
+		return channel.readAsync(rootPtr ? 0 : pageOffset(id.pageNumber()), pageBuf).thenApply(retval -> {
+			if (retval == -1) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			if (retval < pageSize) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageSize + " bytes from BTreeFile");
+			}
+			Debug.log(1, "BTreeFile.readPageAsync: read page %d", id.pageNumber());
+			return pageFromData(id, pageBuf);
+		});
+	}
+
+	/**
+	 * Read the given pages from disk, reading each run of consecutive page
+	 * numbers, e.g. a stretch of leaves allocated in order, with a single
+	 * positional read. The root pointer page is read on its own.
+	 * 
+	 * @param pids - the ids of the pages to read, all of this file
+	 * @return the pages, in the order of pids
+	 */
+	public List<Page> readPages(List<PageId> pids) {
+		List<Page> pages = new ArrayList<>(pids.size());
+		int pageSize = BufferPool.getPageSize();
+		try {
+			for (int start = 0; start < pids.size(); ) {
+				BTreePageId first = (BTreePageId) pids.get(start);
+				if (first.pgcateg() == BTreePageId.ROOT_PTR) {
+					pages.add(readPage(first));
+					start++;
+					continue;
+				}
+				int end = start + 1;
+				while (end < pids.size() && pids.get(end).pageNumber() == first.pageNumber() + end - start
+						&& ((BTreePageId) pids.get(end)).pgcateg() != BTreePageId.ROOT_PTR) {
+					end++;
+				}
+				byte[] buf = new byte[(end - start) * pageSize];
+				int retval = channel.read(pageOffset(first.pageNumber()), buf);
+				if (retval < buf.length) {
+					throw new IllegalArgumentException("Unable to read "
+							+ buf.length + " bytes from BTreeFile");
+				}
+				Debug.log(1, "BTreeFile.readPages: read pages %d to %d", first.pageNumber(),
+						first.pageNumber() + end - start - 1);
+				for (int i = start; i < end; i++) {
+					BTreePageId id = (BTreePageId) pids.get(i);
+					byte[] pageBuf = Arrays.copyOfRange(buf, (i - start) * pageSize, (i - start + 1) * pageSize);
+					pages.add(pageFromData(id, pageBuf));
+				}
+				start = end;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return pages;
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -150,18 +235,28 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(0, page.getPageData());
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			ByteBuffer buf = channel.getWriteBuffer(BufferPool.getPageSize());
+			page.writePageData(buf);
+			channel.write(pageOffset(id.pageNumber()), buf.array());
 		}
 	}
+
+	/**
+	 * Returns the file offset of the non-root-pointer page with the given
+	 * page number. Page numbers start at 1; the root pointer page comes first.
+	 */
+	private long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber-1) * BufferPool.getPageSize();
+	}
+
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		channel.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -1010,13 +1105,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(0, emptyRootPtrData);
+				channel.write(emptyRootPtrData.length, emptyLeafData);
 			}
 		}
 
@@ -1072,11 +1164,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.write(channel.size(), emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1107,10 +1196,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1263,6 +1349,17 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		it = curp.iterator();
+		prefetchNext();
+	}
+
+	/**
+	 * Leaves are not laid out in page number order, so tell the read-ahead
+	 * which page comes next while this one is being read
+	 */
+	private void prefetchNext() {
+		if (curp != null) {
+			Database.getBufferPool().getReadAhead().prefetch(curp.getRightSiblingId());
+		}
 	}
 
 	/**
@@ -1284,6 +1381,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				prefetchNext();
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
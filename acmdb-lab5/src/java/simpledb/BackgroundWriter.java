@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BackgroundWriter writes the pages of committed transactions from a
+ * BufferPool to disk on a background thread, so that neither commits nor
+ * evictions have to wait for those writes.
+ * <p>
+ * It is disabled by default, in which case the pool forces a transaction's
+ * pages to disk when it commits. Once enabled, a commit only appends the
+ * after-images of the transaction's pages to the log and forces the log;
+ * the pages stay in the pool, clean as far as locking and eviction are
+ * concerned but still to be written, until this writer gets to them. If the
+ * system crashes before then, {@link LogFile#recover} redoes the logged
+ * writes.
+ * <p>
+ * Every {@link #getIntervalMillis()} milliseconds the writer writes up to
+ * {@link #getPagesPerRound()} such pages, which bounds the write rate, in
+ * file and page number order, so that runs of consecutive pages are written
+ * with one large write, see {@link DbFile#writePages}. It leaves them alone
+ * while they make up no more than {@link #getDirtyThreshold()} of the pool.
+ * A page that is evicted or discarded before the writer gets to it is
+ * written by the evicting thread, which {@link #getSynchronousWrites()}
+ * counts.
+ * <p>
+ * Pages of tables dropped from the catalog are forgotten. A write that
+ * fails is reported and disables the writer, see {@link #getFailure()},
+ * rather than being retried in the background forever; commits force their
+ * pages again, and the pages the writer has not written are written when
+ * they are evicted or discarded.
+ *
+ * @Threadsafe
+ */
+public class BackgroundWriter {
+
+    /** The thread shared by the background writers of every BufferPool. */
+    private static final ScheduledExecutorService writerThread = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "simpledb-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Orders pages by file, then page number. */
+    private static final Comparator<PageId> FILE_ORDER = Comparator
+            .comparingInt(PageId::getTableId)
+            .thenComparingInt(PageId::pageNumber)
+            .thenComparingInt(pid -> pid.hashCode());
+
+    private final BufferPool bufferPool;
+    private volatile int poolPages;
+
+    private volatile boolean enabled;
+    private volatile int pagesPerRound = 64;
+    private volatile long intervalMillis = 10;
+    private volatile double dirtyThreshold = 0;
+    private ScheduledFuture<?> rounds;
+    private boolean closed;
+    private volatile Exception failure;
+
+    /**
+     * The committed pages that have not been written since they were last
+     * committed, each with the sequence number of its last commit.
+     */
+    private final ConcurrentSkipListMap<PageId, Long> pending = new ConcurrentSkipListMap<>(FILE_ORDER);
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong synchronousWrites = new AtomicLong();
+
+    /**
+     * Creates the background writer of a BufferPool.
+     *
+     * @param bufferPool the pool whose pages are written
+     * @param poolPages the capacity of the pool, in pages
+     */
+    BackgroundWriter(BufferPool bufferPool, int poolPages) {
+        this.bufferPool = bufferPool;
+        this.poolPages = poolPages;
+    }
+
+    /**
+     * Returns true if commits leave their pages for this writer.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the writer. Disabling it writes every page it
+     * has not written yet before returning, so that the pool is back to
+     * forcing pages to disk at commit.
+     */
+    public synchronized void setEnabled(boolean enabled) throws IOException {
+        this.enabled = enabled;
+        reschedule();
+        if (!enabled) {
+            bufferPool.writeCommitted(new ArrayList<>(pending.keySet()));
+        }
+    }
+
+    /**
+     * Returns the error that disabled the writer, or null if no background
+     * write has failed.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops the rounds of this writer for good, because its pool is being
+     * replaced; pages it has not written are left to their pool.
+     */
+    synchronized void close() {
+        closed = true;
+        reschedule();
+    }
+
+    /**
+     * Returns the most pages written per round.
+     */
+    public int getPagesPerRound() {
+        return pagesPerRound;
+    }
+
+    /**
+     * Sets the most pages written per round, which together with the
+     * interval between rounds limits the rate of background writes.
+     */
+    public void setPagesPerRound(int pagesPerRound) {
+        if (pagesPerRound < 1) {
+            throw new IllegalArgumentException("a round must write at least one page, not " + pagesPerRound);
+        }
+        this.pagesPerRound = pagesPerRound;
+    }
+
+    /**
+     * Returns the time between the end of one round and the start of the
+     * next, in milliseconds.
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Sets the time between the end of one round and the start of the
+     * next, in milliseconds.
+     */
+    public synchronized void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("non-positive interval " + intervalMillis);
+        }
+        this.intervalMillis = intervalMillis;
+        reschedule();
+    }
+
+    /**
+     * Returns the fraction of the pool that pages waiting to be written may
+     * make up before the writer starts writing them.
+     */
+    public double getDirtyThreshold() {
+        return dirtyThreshold;
+    }
+
+    /**
+     * Sets the fraction of the pool that pages waiting to be written may
+     * make up before the writer starts writing them. 0, the default, writes
+     * every page as soon as possible; 1 leaves them all to eviction.
+     */
+    public void setDirtyThreshold(double dirtyThreshold) {
+        if (dirtyThreshold < 0 || dirtyThreshold > 1) {
+            throw new IllegalArgumentException("threshold " + dirtyThreshold + " is not between 0 and 1");
+        }
+        this.dirtyThreshold = dirtyThreshold;
+    }
+
+    /**
+     * Returns the number of committed pages waiting to be written.
+     */
+    public int getPendingPages() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of pages this writer has written.
+     */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * Returns the number of DbFile.writePages calls this writer has made;
+     * fewer than pages written when runs of pages were coalesced.
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * Returns the number of committed pages that an eviction or discard had
+     * to write because this writer had not gotten to them yet.
+     */
+    public long getSynchronousWrites() {
+        return synchronousWrites.get();
+    }
+
+    /**
+     * Resets the written page, write and synchronous write counters to zero.
+     */
+    public void resetCounters() {
+        pagesWritten.set(0);
+        writes.set(0);
+        synchronousWrites.set(0);
+    }
+
+    private void reschedule() {
+        if (rounds != null) {
+            rounds.cancel(false);
+            rounds = null;
+        }
+        if (enabled && !closed) {
+            rounds = writerThread.scheduleWithFixedDelay(this::round, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the next pagesPerRound pages, in file order, if there are more
+     * than the threshold allows.
+     */
+    private void round() {
+        if (pending.size() <= dirtyThreshold * poolPages) {
+            return;
+        }
+        List<PageId> pids = new ArrayList<>();
+        Iterator<PageId> it = pending.keySet().iterator();
+        while (it.hasNext() && pids.size() < pagesPerRound) {
+            PageId pid = it.next();
+            try {
+                Database.getCatalog().getDatabaseFile(pid.getTableId());
+                pids.add(pid);
+            } catch (NoSuchElementException e) {
+                // the table was dropped; there is no file to write to
+                it.remove();
+            }
+        }
+        try {
+            bufferPool.writeCommitted(pids);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("ERROR WRITING COMMITTED PAGES -- DISABLING BACKGROUND WRITER.");
+            e.printStackTrace();
+            synchronized (this) {
+                failure = e;
+                enabled = false;
+                reschedule();
+            }
+        }
+    }
+
+    /**
+     * Records that the pool was resized to poolPages pages.
+     */
+    void setPoolPages(int poolPages) {
+        this.poolPages = poolPages;
+    }
+
+    /**
+     * Records that a page was committed and must be written.
+     */
+    void pageCommitted(PageId pid) {
+        pending.put(pid, sequence.incrementAndGet());
+    }
+
+    /**
+     * Returns the sequence number of the last commit of a page waiting to
+     * be written, or null if it is not waiting.
+     */
+    Long pendingSince(PageId pid) {
+        return pending.get(pid);
+    }
+
+    /**
+     * Records that a page was written as of the given commit, unless it has
+     * been committed again since.
+     *
+     * @param evicted whether the page was written because it was evicted
+     *                or discarded
+     */
+    void pageWritten(PageId pid, long since, boolean evicted) {
+        if (pending.remove(pid, since) && evicted) {
+            synchronousWrites.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a DbFile.writePages call of this writer.
+     */
+    void pagesWritten(int count) {
+        writes.incrementAndGet();
+        pagesWritten.addAndGet(count);
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BufferAccessStrategy confines the pages one operation reads into a
+ * BufferPool to a small ring of frames, so that a scan of a table larger than
+ * the pool does not evict the pages everyone else is using.
+ * <p>
+ * A page that the operation's reads bring into the pool takes the next slot
+ * of the ring. When the ring has wrapped around, the page in that slot is
+ * removed from the pool first, provided that it is still clean and unpinned
+ * and no one but this operation has asked for it since; otherwise it stays
+ * in the pool as an ordinary page. Pages that were cached already are
+ * returned as usual and never enter the ring.
+ * <p>
+ * Operations get a strategy from {@link BufferPool#getScanStrategy} and
+ * pass it to {@link BufferPool#getPage(TransactionId, PageId, Permissions, BufferAccessStrategy)}
+ * and the other methods that take one.
+ *
+ * @Threadsafe
+ */
+public class BufferAccessStrategy {
+    private final PageId[] ring;
+    private int next;
+
+    private final AtomicLong recycled = new AtomicLong();
+
+    /**
+     * Creates a strategy with a ring of the given number of frames.
+     */
+    public BufferAccessStrategy(int ringPages) {
+        if (ringPages < 1) {
+            throw new IllegalArgumentException("a ring needs at least one frame, not " + ringPages);
+        }
+        ring = new PageId[ringPages];
+    }
+
+    /**
+     * Returns the number of frames in the ring.
+     */
+    public int getRingPages() {
+        return ring.length;
+    }
+
+    /**
+     * Returns the number of pages removed from the pool to make room for
+     * the operation's next page.
+     */
+    public long getRecycledPages() {
+        return recycled.get();
+    }
+
+    /**
+     * Puts a page about to be cached in the next slot of the ring.
+     *
+     * @return the page that had the slot, if any, which the pool removes
+     * if it can
+     */
+    synchronized PageId add(PageId pid) {
+        PageId victim = ring[next];
+        ring[next] = pid;
+        next = (next + 1) % ring.length;
+        return victim;
+    }
+
+    /**
+     * Records that a page of the ring was removed from the pool.
+     */
+    void pageRecycled() {
+        recycled.incrementAndGet();
+    }
+}
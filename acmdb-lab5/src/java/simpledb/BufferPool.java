@@ -2,8 +2,17 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,8 +22,40 @@ import java.util.concurrent.ConcurrentLinkedDeque;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool is partitioned into shards by page id hash. Each shard has its
+ * own lock, frame table and replacement policy, so that requests for pages
+ * of different shards do not contend. The capacity is shared: when the pool
+ * is full, a page is evicted from the shard the new page goes to, or from
+ * another shard if that one has no clean page.
+ * <p>
+ * Concurrent misses on the same page are coalesced: the first transaction
+ * reads the page from disk and the others wait for it to be cached. Pages
+ * can also be fetched without waiting for the read, see
+ * {@link #getPageAsync}, to keep several reads outstanding.
+ * <p>
+ * A page can be pinned, see {@link #pinPage}, to keep it in the pool while
+ * a caller works on it, and latched, see {@link #latchPage}, to keep other
+ * threads from seeing it halfway through a change. Pins and latches are
+ * short-term and physical; they are independent of the transactional
+ * locks of the LockManager.
+ * <p>
+ * A pool can keep its pages off the Java heap, see {@link #isOffHeap()}.
+ * <p>
+ * Scans of tables that make up more than {@link #getRingThreshold()} of
+ * the pool read them through a small ring of frames, see
+ * {@link BufferAccessStrategy}, so that they do not evict the pages other
+ * transactions are working with.
+ * <p>
+ * Evicted pages can be kept compressed in a second, larger tier, see
+ * {@link CompressedPageCache}, which is checked before a page is read.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe: the frames of each shard are guarded by the shard's lock,
+ * the pages being read, the pins and the other per-page and
+ * per-transaction tables are concurrent maps, the counters are atomic, and
+ * the settings that can change while the pool is in use, such as its size
+ * and the ring parameters, are volatile; resizes take one more lock, see
+ * {@link #resize}
  */
 public class BufferPool {
     /**
@@ -32,18 +73,358 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private int num_pages;
-    private ConcurrentHashMap<PageId, Page> pid2page;
+    /**
+     * Number of pages read ahead of a sequential scan by pools that enable
+     * read-ahead, such as the one the Parser queries. A new BufferPool
+     * starts with read-ahead off, so that its contents are only the pages
+     * its callers asked for.
+     *
+     * @see ReadAhead#setWindow
+     */
+    public static final int READ_AHEAD_PAGES = 8;
+
+    /**
+     * The fewest pages per shard the default shard count allows. Small
+     * pools get a single shard, so that the replacement policy sees every
+     * page.
+     */
+    public static final int MIN_SHARD_PAGES = 32;
+
+    /**
+     * Default largest ring of a scan strategy, in pages.
+     *
+     * @see #getScanStrategy
+     */
+    public static final int DEFAULT_RING_PAGES = 32;
+
+    /**
+     * Default fraction of the pool a table must exceed for scans of it to
+     * use a ring: tables that cannot be cached whole anyway.
+     *
+     * @see #getScanStrategy
+     */
+    public static final double DEFAULT_RING_THRESHOLD = 1.0;
+
+    /**
+     * The most pages {@link #resize} evicts at a time before it lets other
+     * threads at the shards again.
+     */
+    public static final int RESIZE_BATCH_PAGES = 64;
+
+    private volatile int num_pages;
+    private final Shard[] shards;
+    private final AtomicInteger numCached = new AtomicInteger();
+
+    /**
+     * The tables each live transaction has written pages of directly, see
+     * {@link #lockForDirectWrite}.
+     */
+    private final ConcurrentHashMap<TransactionId, Set<Integer>> directWriteTables;
+
+    private final ReadAhead readAhead;
+
+    private final CompressedPageCache compressedCache = new CompressedPageCache(0);
+
+    private final BackgroundWriter writer;
+
+    /** The frames clean HeapPages are kept in, or null if on the heap. */
+    private final FrameArena arena;
+
+    private final Object resizeLock = new Object();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * The pages whose after-images {@link #flushPages} has logged for each
+     * committing transaction, which stay dirty until it completes.
+     */
+    private final ConcurrentHashMap<TransactionId, List<Page>> logged = new ConcurrentHashMap<>();
+
+    /** Pages being read from disk for a caller, see {@link #getPage}. */
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedReads = new AtomicLong();
+
+    /** The pages each table has in the pool and its hit and miss counts. */
+    private final ConcurrentHashMap<Integer, TableBufferUsage> usage = new ConcurrentHashMap<>();
+
+    private volatile int ringPages = DEFAULT_RING_PAGES;
+    private volatile double ringThreshold = DEFAULT_RING_THRESHOLD;
+
+    /** The pins each live transaction holds, per page. */
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Integer>> pins
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with the scan-resistant LRU-2 policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, () -> new LruKPolicy(2));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the given policy, with one shard per processor as long as
+     * each shard gets at least {@link #MIN_SHARD_PAGES} pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policies creates the replacement policy of each shard
+     */
+    public BufferPool(int numPages, Supplier<? extends ReplacementPolicy> policies) {
+        this(numPages, defaultShards(numPages), policies);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * number of shards and evicts them according to the given policy.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards the number of independently locked shards
+     * @param policies  creates the replacement policy of each shard
+     */
+    public BufferPool(int numPages, int numShards, Supplier<? extends ReplacementPolicy> policies) {
+        this(numPages, numShards, policies, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * number of shards, evicts them according to the given policy and,
+     * if offHeap is true, keeps them off the heap.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards the number of independently locked shards
+     * @param policies  creates the replacement policy of each shard
+     * @param offHeap   whether to keep pages in direct memory
+     * @see #isOffHeap()
+     */
+    public BufferPool(int numPages, int numShards, Supplier<? extends ReplacementPolicy> policies,
+                      boolean offHeap) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("a BufferPool needs at least one shard, not " + numShards);
+        }
         num_pages = numPages;
-        pid2page = new ConcurrentHashMap<>(numPages);
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard(policies.get(), numPages / numShards + 1);
+        }
         lockManager = LockManager.GetLockManager();
+        directWriteTables = new ConcurrentHashMap<>();
+        readAhead = new ReadAhead(this, 0);
+        writer = new BackgroundWriter(this, numPages);
+        arena = offHeap ? new FrameArena(numPages, pageSize) : null;
+    }
+
+    /**
+     * Returns the number of pages the pool may hold.
+     */
+    public int getNumPages() {
+        return num_pages;
+    }
+
+    /**
+     * Changes the number of pages the pool may hold, without dropping the
+     * pages it holds. Growing takes effect at once. Shrinking takes effect
+     * at once for the pages added from then on, while the pages beyond the
+     * new size are evicted gradually: at most {@link #RESIZE_BATCH_PAGES} at
+     * a time, clean and unpinned pages first, waiting for the transactions
+     * that hold the others to complete for up to timeoutMillis. An
+     * off-heap pool keeps the direct memory of the frames it no longer
+     * uses.
+     *
+     * @param numPages the new number of pages
+     * @param timeoutMillis how long to wait for dirty or pinned pages
+     * @return true if the pool holds no more than numPages pages on return;
+     * otherwise later evictions make up the difference
+     */
+    public boolean resize(int numPages, long timeoutMillis) throws InterruptedException {
+        if (numPages < 1) {
+            throw new IllegalArgumentException("a BufferPool needs at least one page, not " + numPages);
+        }
+        synchronized (resizeLock) {
+            if (arena != null) {
+                arena.grow(numPages);
+            }
+            num_pages = numPages;
+            writer.setPoolPages(numPages);
+
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            int next = 0;
+            while (numCached.get() > num_pages) {
+                int evicted = 0;
+                for (int tries = 0; evicted < RESIZE_BATCH_PAGES && numCached.get() > num_pages
+                        && tries < shards.length; ) {
+                    // spread the evictions over the shards
+                    if (shards[next++ % shards.length].evictOne()) {
+                        evicted++;
+                        tries = 0;
+                    } else {
+                        tries++;
+                    }
+                }
+                if (evicted > 0) {
+                    Thread.yield();
+                } else if (System.currentTimeMillis() < deadline) {
+                    // every page left is dirty or pinned
+                    Thread.sleep(1);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if this pool keeps its pages off the heap. Such a pool
+     * allocates one frame of direct memory per page up front, and caches
+     * each clean HeapPage it reads as a view over its frame: the page
+     * keeps its bytes in the frame instead of an array, and its tuples are
+     * decoded from the frame whenever an iterator reaches them instead of
+     * being kept, so that a large pool adds little for the garbage
+     * collector to trace. Pages that are modified or of other kinds are
+     * kept on the heap as usual. Views must be read while pinned; when the
+     * pool evicts a view it moves the view's bytes to the heap before
+     * reusing the frame, for anyone still holding the page.
+     */
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    private static int defaultShards(int numPages) {
+        int shards = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        while (shards > 1 && numPages / shards < MIN_SHARD_PAGES) {
+            shards /= 2;
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the number of page requests that waited for another
+     * transaction's read of the same page instead of reading it again.
+     */
+    public long getCoalescedReads() {
+        return coalescedReads.get();
+    }
+
+    /**
+     * Returns the share of the pool a table uses: the number of its pages
+     * in the pool, and how many requests for its pages found them there
+     * since the pool was created or the counters were reset.
+     */
+    public TableBufferUsage getTableUsage(int tableId) {
+        return usage.computeIfAbsent(tableId, k -> new TableBufferUsage());
+    }
+
+    /**
+     * Returns the usage of every table that has had pages in the pool or
+     * requested, by table id.
+     */
+    public Map<Integer, TableBufferUsage> getTableUsage() {
+        return Collections.unmodifiableMap(usage);
+    }
+
+    /**
+     * Returns the number of shards the pool is partitioned into.
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        return shards[(h & 0x7fffffff) % shards.length];
+    }
+
+    /**
+     * Returns the component that loads pages into this pool ahead of
+     * sequential scans, through which the read-ahead window is configured
+     * and its hit and miss counters are read.
+     */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Shuts down the background work of this pool, because it is being
+     * replaced, see {@link Database#resetBufferPool}: read-ahead batches
+     * still queued load nothing, and the background writer stops its
+     * rounds. The pool itself can still be used, without either.
+     */
+    public void close() {
+        readAhead.close();
+        writer.close();
+    }
+
+    /**
+     * Returns the component that writes the pages of committed transactions
+     * in the background, through which it is enabled and configured.
+     */
+    public BackgroundWriter getBackgroundWriter() {
+        return writer;
+    }
+
+    /**
+     * Returns the compressed tier below the pool, which is disabled until
+     * it is given a capacity.
+     */
+    public CompressedPageCache getCompressedCache() {
+        return compressedCache;
+    }
+
+    /**
+     * Returns the largest ring a scan strategy gets, in pages; 0 if scans
+     * do not use rings.
+     */
+    public int getRingPages() {
+        return ringPages;
+    }
+
+    /**
+     * Sets the largest ring a scan strategy gets, in pages; 0 turns rings
+     * off.
+     */
+    public void setRingPages(int ringPages) {
+        if (ringPages < 0) {
+            throw new IllegalArgumentException("negative ring size " + ringPages);
+        }
+        this.ringPages = ringPages;
+    }
+
+    /**
+     * Returns the fraction of the pool a table must exceed for scans of it
+     * to use a ring.
+     */
+    public double getRingThreshold() {
+        return ringThreshold;
+    }
+
+    /**
+     * Sets the fraction of the pool a table must exceed for scans of it to
+     * use a ring.
+     */
+    public void setRingThreshold(double ringThreshold) {
+        if (ringThreshold < 0) {
+            throw new IllegalArgumentException("negative threshold " + ringThreshold);
+        }
+        this.ringThreshold = ringThreshold;
+    }
+
+    /**
+     * Returns the strategy a scan of a table of the given size should read
+     * it through, or null if the table is small enough to cache as usual.
+     * The ring holds a quarter of the pool at most, but always at least a
+     * read-ahead window and the page being read.
+     *
+     * @param tablePages the number of pages of the table to scan
+     */
+    public BufferAccessStrategy getScanStrategy(int tablePages) {
+        int ring = ringPages;
+        if (ring == 0 || tablePages <= ringThreshold * num_pages) {
+            return null;
+        }
+        return new BufferAccessStrategy(Math.max(readAhead.getWindow() + 1, Math.min(ring, num_pages / 4)));
     }
 
     public static int getPageSize() {
@@ -69,7 +450,8 @@ public class BufferPool {
      * is present, it should be returned.  If it is not present, it should
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
-     * should be added in its place.
+     * should be added in its place. If another transaction is reading the
+     * page from disk already, this waits for its read instead.
      *
      * @param tid  the ID of the transaction requesting the page
      * @param pid  the ID of the requested page
@@ -77,6 +459,92 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but caches it in the ring of the given strategy if it has to be read.
+     * Pages read through a strategy are not reported to read-ahead, since
+     * the ring is too small to hold pages read ahead of the caller.
+     *
+     * @param strategy the strategy of the calling operation, or null
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy)
+            throws TransactionAbortedException, DbException {
+
+        if (pid == null) {
+            throw new DbException("NULL PageId!");
+        }
+
+        lockManager.acquireLock(tid, pid, perm);
+
+        readAhead.await(pid);
+        Shard shard = shardOf(pid);
+        Page cached = shard.get(pid);
+        if (cached != null) {
+            accessed(shard, pid, strategy, true);
+            if (strategy == null) {
+                readAhead.access(pid, true);
+            }
+            return cached;
+        } else {
+            CompletableFuture<Page> load = new CompletableFuture<>();
+            CompletableFuture<Page> inflight = loading.putIfAbsent(pid, load);
+            Page page;
+            if (inflight != null) {
+                coalescedReads.incrementAndGet();
+                page = join(inflight);
+            } else {
+                page = load(shard, pid, load, strategy);
+            }
+            accessed(shard, pid, strategy, false);
+            if (strategy == null) {
+                readAhead.access(pid, false);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Reads a page from disk and caches it on behalf of the callers waiting
+     * on the given future, which the caller has registered in loading.
+     */
+    private Page load(Shard shard, PageId pid, CompletableFuture<Page> load, BufferAccessStrategy strategy)
+            throws DbException {
+        try {
+            readAhead.cancel(pid);
+            DbFile file = getPageFile(pid);
+            Page page = compressedCache.take(pid, file);
+            page = cachePage(shard, page != null ? page : file.readPage(pid), false, strategy);
+            load.complete(page);
+            return page;
+        } catch (DbException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(pid, load);
+        }
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but returns without waiting for the page to be read from disk, so that
+     * a caller such as a scan or an index lookup can have several reads
+     * outstanding at once; see {@link DbFile#readPageAsync}. The lock on the
+     * page is still acquired before this returns, and may block as in
+     * getPage. The page is cached when its read completes, on the thread
+     * that completes it.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return a future of the page, completed already if the page is cached,
+     * which completes exceptionally with a DbException or RuntimeException
+     * if the page cannot be read or cached
+     */
+    public CompletableFuture<Page> getPageAsync(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
 
         if (pid == null) {
             throw new DbException("NULL PageId!");
@@ -84,23 +552,420 @@ public class BufferPool {
 
         lockManager.acquireLock(tid, pid, perm);
 
-        if (pid2page.containsKey(pid)) {
-            return pid2page.get(pid);
+        readAhead.await(pid);
+        Shard shard = shardOf(pid);
+        Page cached = shard.get(pid);
+        if (cached != null) {
+            accessed(shard, pid, null, true);
+            readAhead.access(pid, true);
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Page> load = new CompletableFuture<>();
+        CompletableFuture<Page> inflight = loading.putIfAbsent(pid, load);
+        if (inflight != null) {
+            coalescedReads.incrementAndGet();
         } else {
-            Page page = getPageFile(pid).readPage(pid);
-            if (pid2page.size() == num_pages) {
-                evictPage();
+            loadAsync(shard, pid, load);
+        }
+        readAhead.access(pid, false);
+        return (inflight != null ? inflight : load).thenApply(page -> {
+            accessed(shard, pid, null, false);
+            return page;
+        });
+    }
+
+    /**
+     * Starts reading a page from disk, and caches it and completes the
+     * given future, which the caller has registered in loading, when the
+     * read completes.
+     */
+    private void loadAsync(Shard shard, PageId pid, CompletableFuture<Page> load) {
+        CompletableFuture<Page> read;
+        try {
+            readAhead.cancel(pid);
+            DbFile file = getPageFile(pid);
+            Page page = compressedCache.take(pid, file);
+            read = page != null ? CompletableFuture.completedFuture(page) : file.readPageAsync(pid);
+        } catch (RuntimeException e) {
+            read = new CompletableFuture<>();
+            read.completeExceptionally(e);
+        }
+        read.whenComplete((page, failure) -> {
+            try {
+                if (failure instanceof CompletionException) {
+                    failure = failure.getCause();
+                }
+                if (failure != null) {
+                    // waiters in getPage rethrow only these, see join
+                    load.completeExceptionally(failure instanceof DbException || failure instanceof RuntimeException
+                            ? failure : new RuntimeException(failure));
+                } else {
+                    load.complete(cachePage(shard, page, false, null));
+                }
+            } catch (DbException | RuntimeException e) {
+                load.completeExceptionally(e);
+            } finally {
+                loading.remove(pid, load);
+            }
+        });
+    }
+
+    /**
+     * Tells the shard's policy that a page was asked for, and counts the
+     * request as a hit or miss of its table. A page in a ring that someone
+     * else asks for leaves the ring, so that it is not removed when the
+     * ring wraps around.
+     *
+     * @param hit whether the page was in the pool when it was asked for
+     */
+    private void accessed(Shard shard, PageId pid, BufferAccessStrategy strategy, boolean hit) {
+        shard.policy.pageAccessed(pid);
+        getTableUsage(pid.getTableId()).accessed(hit);
+        Frame frame = shard.frame(pid);
+        if (frame != null && frame.owner != strategy) {
+            frame.owner = null;
+        }
+    }
+
+    /**
+     * Waits for another caller's read of a page and returns the page, or
+     * throws what the read threw.
+     */
+    private static Page join(CompletableFuture<Page> load) throws DbException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DbException) {
+                throw (DbException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Retrieves the specified pages with the associated permissions, as if
+     * by calling {@link #getPage} on each in turn, but reads the pages that
+     * are not cached with as few large reads as possible, see
+     * {@link DbFile#readPages}, and waiting for the ones other transactions
+     * are reading already. Pages read for this call may be evicted again
+     * before it returns if the pool has fewer free slots than pages
+     * requested; the returned pages remain valid to read, but callers that
+     * modify pages should get them through getPage.
+     *
+     * @param tid  the ID of the transaction requesting the pages
+     * @param pids the IDs of the requested pages
+     * @param perm the requested permissions on the pages
+     * @return the pages, in the order of pids
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return getPages(tid, pids, perm, null);
+    }
+
+    /**
+     * Retrieves pages like {@link #getPages(TransactionId, List, Permissions)},
+     * but caches the ones it reads in the ring of the given strategy.
+     *
+     * @param strategy the strategy of the calling operation, or null
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm,
+                               BufferAccessStrategy strategy)
+            throws TransactionAbortedException, DbException {
+        Page[] pages = new Page[pids.size()];
+        Map<Integer, List<PageId>> missing = new LinkedHashMap<>();
+        Map<PageId, CompletableFuture<Page>> mine = new HashMap<>();
+        Map<PageId, CompletableFuture<Page>> others = new LinkedHashMap<>();
+        for (int i = 0; i < pages.length; i++) {
+            PageId pid = pids.get(i);
+            if (pid == null) {
+                throw new DbException("NULL PageId!");
+            }
+            lockManager.acquireLock(tid, pid, perm);
+            readAhead.await(pid);
+            pages[i] = shardOf(pid).get(pid);
+            if (pages[i] != null) {
+                accessed(shardOf(pid), pid, strategy, true);
+                if (strategy == null) {
+                    readAhead.access(pid, true);
+                }
+            } else if (!mine.containsKey(pid) && !others.containsKey(pid)) {
+                CompletableFuture<Page> load = new CompletableFuture<>();
+                CompletableFuture<Page> inflight = loading.putIfAbsent(pid, load);
+                if (inflight != null) {
+                    others.put(pid, inflight);
+                } else {
+                    mine.put(pid, load);
+                    readAhead.cancel(pid);
+                    missing.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>()).add(pid);
+                }
+            }
+        }
+
+        Map<PageId, Page> read = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Integer, List<PageId>> entry : missing.entrySet()) {
+                DbFile file = getDbFileFromDisc(entry.getKey());
+                List<Page> loaded = new ArrayList<>(entry.getValue().size());
+                List<PageId> unloaded = new ArrayList<>();
+                for (PageId pid : entry.getValue()) {
+                    Page page = compressedCache.take(pid, file);
+                    if (page != null) {
+                        loaded.add(page);
+                    } else {
+                        unloaded.add(pid);
+                    }
+                }
+                if (!unloaded.isEmpty()) {
+                    loaded.addAll(file.readPages(unloaded));
+                }
+                for (Page page : loaded) {
+                    Shard shard = shardOf(page.getId());
+                    page = cachePage(shard, page, false, strategy);
+                    accessed(shard, page.getId(), strategy, false);
+                    read.put(page.getId(), page);
+                    mine.get(page.getId()).complete(page);
+                }
+            }
+        } catch (DbException | RuntimeException e) {
+            for (CompletableFuture<Page> load : mine.values()) {
+                load.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            for (Map.Entry<PageId, CompletableFuture<Page>> entry : mine.entrySet()) {
+                loading.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        // only after completing our own reads, which others may wait for
+        for (Map.Entry<PageId, CompletableFuture<Page>> entry : others.entrySet()) {
+            coalescedReads.incrementAndGet();
+            Page page = join(entry.getValue());
+            accessed(shardOf(page.getId()), page.getId(), strategy, false);
+            read.put(page.getId(), page);
+        }
+        // only now, so that read-ahead does not schedule pages read above
+        for (PageId pid : read.keySet()) {
+            if (strategy == null) {
+                readAhead.access(pid, false);
+            }
+        }
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] == null) {
+                pages[i] = read.get(pids.get(i));
+            }
+        }
+        return Arrays.asList(pages);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage} and pins it: the page is not
+     * evicted until tid unpins it as often as it pinned it, or completes.
+     * It can still be discarded, as a B+ tree does with the pages it frees.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return the pinned page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves and pins a page like {@link #pinPage(TransactionId, PageId, Permissions)},
+     * reading it through the given strategy if it is not cached.
+     *
+     * @param strategy the strategy of the calling operation, or null
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy)
+            throws TransactionAbortedException, DbException {
+        while (true) {
+            getPage(tid, pid, perm, strategy);
+            // the page may have been evicted again already
+            Page page = shardOf(pid).pin(pid);
+            if (page != null) {
+                pins.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(pid, 1, Integer::sum);
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Releases a pin that tid took with {@link #pinPage}.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> held = pins.get(tid);
+        if (held == null || !held.containsKey(pid)) {
+            return;
+        }
+        held.computeIfPresent(pid, (k, n) -> n > 1 ? n - 1 : null);
+        shardOf(pid).unpin(pid);
+    }
+
+    /**
+     * Returns the number of pins on a page, 0 if it is not cached.
+     */
+    int getPinCount(PageId pid) {
+        return shardOf(pid).pinCount(pid);
+    }
+
+    /**
+     * Latches a pinned page: in shared mode for READ_ONLY, to read it
+     * without seeing a change halfway through, or in exclusive mode for
+     * READ_WRITE, to change it. The pool takes the shared latch to write a
+     * page back to disk. Latches are held for the duration of a physical
+     * operation only and are not reentrant across modes.
+     *
+     * @param pid  the ID of the page, which the caller has pinned
+     * @param perm the latch mode
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void latchPage(PageId pid, Permissions perm) {
+        Lock latch = latch(pid, perm);
+        latch.lock();
+    }
+
+    /**
+     * Releases a latch taken with {@link #latchPage}, which must be done
+     * before the page is unpinned.
+     *
+     * @param pid  the ID of the page
+     * @param perm the mode the latch was taken in
+     */
+    public void unlatchPage(PageId pid, Permissions perm) {
+        latch(pid, perm).unlock();
+    }
+
+    private Lock latch(PageId pid, Permissions perm) {
+        Shard shard = shardOf(pid);
+        Frame frame = shard.frame(pid);
+        if (frame == null || frame.pins == 0) {
+            throw new IllegalStateException("page " + pid + " is not pinned");
+        }
+        return perm == Permissions.READ_WRITE ? frame.latch.writeLock() : frame.latch.readLock();
+    }
+
+    /**
+     * Returns true if the page is in the pool.
+     */
+    boolean isCached(PageId pid) {
+        return shardOf(pid).get(pid) != null;
+    }
+
+    /**
+     * Returns the number of pages in the pool.
+     */
+    int numCached() {
+        return numCached.get();
+    }
+
+    /**
+     * Adds a page that ReadAhead read from disk, unless it was cancelled in
+     * the meantime, is already cached, or there is no clean page to evict to
+     * make room for it.
+     *
+     * @return true if the page was added
+     */
+    boolean addLoadedAhead(Page page, CountDownLatch batch) {
+        PageId pid = page.getId();
+        Shard shard = shardOf(pid);
+        if (shard.get(pid) != null) {
+            return false;
+        }
+        try {
+            evictPage(shard, pid);
+        } catch (DbException e) {
+            return false;
+        }
+        synchronized (shard) {
+            if (!readAhead.claim(pid, batch) || shard.get(pid) != null) {
+                return false;
+            }
+            shard.put(page);
+            return true;
+        }
+    }
+
+    /**
+     * Puts a page in its shard, first evicting a page if the pool is full
+     * and the page is not cached yet.
+     *
+     * @param replace whether to replace a cached copy of the page
+     * @param strategy the strategy whose ring a newly cached page goes in,
+     *                 whose page in that slot is removed first; or null
+     * @return the page now cached, which is the cached copy if there was
+     * one and replace is false
+     */
+    private Page cachePage(Shard shard, Page page, boolean replace, BufferAccessStrategy strategy)
+            throws DbException {
+        PageId pid = page.getId();
+        if (shard.get(pid) == null) {
+            if (strategy != null) {
+                PageId victim = strategy.add(pid);
+                if (victim != null && shardOf(victim).recycle(victim, strategy)) {
+                    strategy.pageRecycled();
+                }
+            }
+            evictPage(shard, pid);
+        }
+        synchronized (shard) {
+            Page cached = shard.get(pid);
+            if (cached != null && !replace) {
+                return cached;
+            }
+            page = shard.put(page);
+            if (cached == null) {
+                shard.frame(pid).owner = strategy;
             }
-            pid2page.put(pid, page);
             return page;
         }
     }
 
+    /**
+     * Tells the free-space map of a restored page's file, if it keeps one,
+     * whether the page has room again; the inserts of the aborted
+     * transaction may have left it marked full.
+     */
+    private void restoreFreeSpace(Page page) {
+        FreeSpaceMap map;
+        try {
+            map = getPageFile(page.getId()).getFreeSpaceMap();
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (map != null) {
+            map.update(page);
+        }
+    }
+
     private DbFile getPageFile(PageId pid) {
         int table_id = pid.getTableId();
         return Database.getCatalog().getDatabaseFile(table_id);
     }
 
+    /**
+     * Acquires an exclusive lock on a page that tid is about to write
+     * straight to disk through its DbFile rather than through the pool, such
+     * as the pages appended by {@link HeapFile#bulkAppend}. The page is
+     * neither read nor cached, and any cached copy is discarded. Other
+     * transactions cannot read the page until tid completes; at that point
+     * the page's file is told through {@link DbFile#transactionComplete}, so
+     * that it can undo the write if tid aborted.
+     *
+     * @param tid the ID of the transaction writing the page
+     * @param pid the ID of the page
+     */
+    public void lockForDirectWrite(TransactionId tid, PageId pid)
+            throws TransactionAbortedException {
+        lockManager.acquireLock(tid, pid, Permissions.READ_WRITE);
+        discardPage(pid);
+        directWriteTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid.getTableId());
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -136,43 +1001,110 @@ public class BufferPool {
     }
 
     /**
-     * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * Commit or abort a given transaction; release all locks and pins
+     * associated to the transaction.
+     * <p>
+     * A committed page's before-image is reset to its new contents, so
+     * that the before-image of every cached page is its last committed
+     * version. An abort puts that version back in place of each page the
+     * transaction locked for writing, without reading the disk.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
+        transactionComplete(tid, commit, false);
+    }
+
+    /**
+     * Commits or aborts a transaction like
+     * {@link #transactionComplete(TransactionId, boolean)}. Called by
+     * {@link Transaction}, which writes the COMMIT or ABORT record itself,
+     * with recordLogged set, so that the record is not written twice.
+     *
+     * @param recordLogged whether the caller has logged the COMMIT or ABORT
+     */
+    void transactionComplete(TransactionId tid, boolean commit, boolean recordLogged)
+            throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
         ConcurrentHashMap<TransactionId, ConcurrentLinkedDeque<PageId>> tid2dirtypageIds
                 = lockManager.getTransactionDirtiedPages();
 
+        boolean deferred = writer.isEnabled();
+        List<Page> committed = logged.remove(tid);
+        int unlogged = 0;
+        if (commit && deferred) {
+            if (committed == null) {
+                committed = new ArrayList<>();
+            }
+            unlogged = logAfterImages(tid, committed);
+        }
         if (tid2dirtypageIds.containsKey(tid)) {
             for (PageId pid : tid2dirtypageIds.get(tid)) {
+                Page cached = shardOf(pid).get(pid);
                 if (commit) {
-                    flushPage(pid);
-                    try {
-                        this.getPage(tid, pid, Permissions.READ_WRITE);
-                    } catch (Exception e) {
+                    if (!deferred) {
+                        flushPage(pid);
+                        if (cached != null) {
+                            cached.setBeforeImage();
+                        }
                     }
-                } else {
-                    int tableId = pid.getTableId();
-                    Page page = getDbFileFromDisc(tableId).readPage(pid);
-                    pid2page.replace(pid, page);
+                } else if (cached != null) {
+                    // the before-image is the last committed version, so
+                    // the abort needs no disk read; clean pages are put back
+                    // too, since an operation cut short by the abort may have
+                    // changed pages it had not marked dirty yet
+                    boolean dirty = cached.isDirty() != null;
+                    Page page = cached.getBeforeImage();
                     page.markDirty(false, null);
+                    shardOf(pid).replace(page);
+                    restoreFreeSpace(page);
+                    if (deferred && dirty) {
+                        // the disk may not have that version yet
+                        writer.pageCommitted(pid);
+                    }
+                }
+            }
+        }
+        Set<Integer> tables = directWriteTables.remove(tid);
+        if (commit && (unlogged > 0 || (tables != null && !recordLogged))) {
+            // make the logged writes count as committed for recovery
+            Database.getLogFile().logCommit(tid);
+        }
+        if (commit && deferred) {
+            for (Page page : committed) {
+                // pending before clean, so that eviction never drops it unwritten
+                writer.pageCommitted(page.getId());
+                page.setBeforeImage();
+                page.markDirty(false, null);
+            }
+        }
+        Map<PageId, Integer> held = pins.remove(tid);
+        if (held != null) {
+            for (Map.Entry<PageId, Integer> entry : held.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    shardOf(entry.getKey()).unpin(entry.getKey());
                 }
             }
         }
+        if (tables != null) {
+            for (int tableId : tables) {
+                getDbFileFromDisc(tableId).transactionComplete(tid, commit);
+            }
+            if (!commit && !recordLogged) {
+                // the logged direct writes are undone; recovery must not
+                // undo them again over later committed writes
+                Database.getLogFile().logAbort(tid);
+            }
+        }
         lockManager.releasePages(tid);
     }
 
     private void insertPageToBufferPool(Page page) throws DbException {
-        if (pid2page.size() == num_pages) {
-            evictPage();
-        }
-        pid2page.put(page.getId(), page);
+        readAhead.cancel(page.getId());
+        cachePage(shardOf(page.getId()), page, true, null);
     }
 
     private DbFile getDbFileFromDisc(int tableId) {
@@ -203,7 +1135,6 @@ public class BufferPool {
         ArrayList<Page> dirtyPages = dbFile.insertTuple(tid, t);
         for (Page dirtyPage : dirtyPages) {
             dirtyPage.markDirty(true, tid);
-            discardPage(dirtyPage.getId());
             insertPageToBufferPool(dirtyPage);
         }
     }
@@ -240,14 +1171,97 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : pid2page.keySet()) {
-            flushPage(pid);
+        for (Shard shard : shards) {
+            shard.flush(null);
         }
     }
 
+    /**
+     * Writes the ids of the pages in the pool to a file, so that a later
+     * {@link #warmUp} can load them again. Each id is written as its class
+     * name followed by {@link PageId#serialize()}, the form LogFile writes
+     * page ids in.
+     *
+     * @param f the file to write; replaced if it exists
+     * @return the number of page ids written
+     */
+    public int dumpPages(File f) throws IOException {
+        List<PageId> pids = new ArrayList<>();
+        for (Shard shard : shards) {
+            pids.addAll(shard.frames.keySet());
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int i : data) {
+                    out.writeInt(i);
+                }
+            }
+        }
+        return pids.size();
+    }
+
+    /**
+     * Starts loading the pages listed by {@link #dumpPages} in the
+     * background, through the read-ahead I/O thread, sorted so that each
+     * table is read sequentially. Pages of tables no longer in the catalog,
+     * pages past the end of their file and pages already cached are
+     * skipped, and only as many pages are loaded as the pool has free
+     * frames, so warming up never evicts anything. A file cut short, say by
+     * a crash while it was written, is read up to where it ends.
+     *
+     * @param f the file written by dumpPages; nothing is loaded if it does
+     *          not exist
+     * @return the number of pages scheduled for loading
+     */
+    public int warmUp(File f) throws IOException {
+        if (!f.exists()) {
+            return 0;
+        }
+        List<PageId> pids = new ArrayList<>();
+        int free = num_pages - numCached();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            int count = in.readInt();
+            for (int n = 0; n < count && pids.size() < free; n++) {
+                String className = in.readUTF();
+                int numArgs = in.readInt();
+                Class<?>[] argTypes = new Class<?>[numArgs];
+                Object[] args = new Object[numArgs];
+                for (int i = 0; i < numArgs; i++) {
+                    argTypes[i] = int.class;
+                    args[i] = in.readInt();
+                }
+                PageId pid;
+                try {
+                    pid = (PageId) Class.forName(className).getDeclaredConstructor(argTypes).newInstance(args);
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IOException("bad page id in " + f + ": " + className, e);
+                }
+                DbFile file;
+                try {
+                    file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                if (pid.pageNumber() < file.numPages() && !isCached(pid)) {
+                    pids.add(pid);
+                }
+            }
+        } catch (EOFException e) {
+            // load what was written before the file was cut short
+        }
+        readAhead.warm(pids);
+        return pids.size();
+    }
+
     /**
      * Remove the specific page id from the buffer pool.
      * Needed by the recovery manager to ensure that the
@@ -260,7 +1274,7 @@ public class BufferPool {
     public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pid2page.remove(pid);
+        shardOf(pid).remove(pid);
     }
 
     /**
@@ -268,62 +1282,428 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        if (pid2page.containsKey(pid)) {
-            Page evictedPage = pid2page.get(pid);
-            if (evictedPage.isDirty() != null) {
-                getPageFile(pid).writePage(evictedPage);
-                evictedPage.markDirty(false, null);
-            }
-        }
+        shardOf(pid).flushPage(pid);
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write all pages of the specified transaction to disk, or, if the
+     * background writer is enabled, their after-images to the log. In the
+     * latter case the pages only become durable with the commit record the
+     * caller appends next, as {@link Transaction} does, and are handed to
+     * the writer when the transaction completes.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for (PageId pid : pid2page.keySet()) {
-            Page page = pid2page.get(pid);
+        if (writer.isEnabled()) {
+            logAfterImages(tid, logged.computeIfAbsent(tid, k -> new ArrayList<>()));
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.flush(tid);
+        }
+    }
+
+    /**
+     * Appends the after-images of the pages tid has dirtied, other than
+     * those already in pages, to the log and adds them to pages. The log is
+     * not forced; the commit record that follows forces it.
+     *
+     * @return the number of pages logged
+     */
+    private int logAfterImages(TransactionId tid, List<Page> pages) throws IOException {
+        List<Page> dirtied = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.dirtiedBy(tid, dirtied);
+        }
+        dirtied.removeAll(pages);
+        LogFile log = Database.getLogFile();
+        for (Page page : dirtied) {
+            log.logWrite(tid, page.getBeforeImage(), page);
+        }
+        pages.addAll(dirtied);
+        return dirtied.size();
+    }
 
-            if (tid.equals(page.isDirty())) {
-                flushPage(pid);
+    /**
+     * Writes committed pages that wait for the background writer, with one
+     * DbFile.writePages call per run of pages of a file. Pages that are no
+     * longer cached were written when they left the pool, and pages a live
+     * transaction has dirtied again wait for its commit.
+     *
+     * @param pids the pages, in file order
+     */
+    void writeCommitted(List<PageId> pids) throws IOException {
+        int i = 0;
+        while (i < pids.size()) {
+            int tableId = pids.get(i).getTableId();
+            List<Page> pages = new ArrayList<>();
+            List<Long> since = new ArrayList<>();
+            List<Frame> latched = new ArrayList<>();
+            try {
+                for (; i < pids.size() && pids.get(i).getTableId() == tableId; i++) {
+                    PageId pid = pids.get(i);
+                    Long seq = writer.pendingSince(pid);
+                    Frame frame = shardOf(pid).frame(pid);
+                    if (seq == null || frame == null) {
+                        continue;
+                    }
+                    frame.latch.readLock().lock();
+                    latched.add(frame);
+                    if (frame.page.isDirty() == null) {
+                        pages.add(frame.page);
+                        since.add(seq);
+                    }
+                }
+                if (!pages.isEmpty()) {
+                    getDbFileFromDisc(tableId).writePages(pages);
+                    writer.pagesWritten(pages.size());
+                }
+            } finally {
+                for (Frame frame : latched) {
+                    frame.latch.readLock().unlock();
+                }
+            }
+            for (int k = 0; k < pages.size(); k++) {
+                // a transaction that dirtied it meanwhile may still abort
+                if (pages.get(k).isDirty() == null) {
+                    writer.pageWritten(pages.get(k).getId(), since.get(k), false);
+                }
             }
         }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Makes room for a page about to be added to the given shard by
+     * evicting a page: one of the page's own table if the table has reached
+     * its quota, see {@link Catalog#setBufferQuota}, and then any page if
+     * the pool is full. Pages are chosen by the shard's ReplacementPolicy
+     * among its clean, unpinned pages, or by the policy of another shard if
+     * the shard has none, and from the lowest {@link CachePriority} class
+     * that has such a page.
+     *
+     * @param pid the page about to be added
      */
-    private synchronized void evictPage() throws DbException {
+    private void evictPage(Shard preferred, PageId pid) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if (pid2page.size() == 0)
-            throw new DbException("Evicting page in Empty buffer!");
+        int tableId = pid.getTableId();
+        int quota = Database.getCatalog().getBufferQuota(tableId);
+        if (quota > 0 && getTableUsage(tableId).getPages() >= quota) {
+            // if none of its pages can go, the table exceeds its quota
+            evictFrom(preferred, null, frame -> frame.page.getId().getTableId() == tableId);
+        }
+        while (numCached.get() >= num_pages) {
+            if (numCached.get() == 0)
+                throw new DbException("Evicting page in Empty buffer!");
 
-        PageId evict_pid = null;
-        for (PageId pid : pid2page.keySet()) {
-            Page page = pid2page.get(pid);
-            if (page != null && page.isDirty() == null) {
-                evict_pid = pid;
-                break;
+            boolean evicted = false;
+            for (int c = 0; !evicted && c < CachePriority.EVICTION_ORDER.length; c++) {
+                CachePriority priority = CachePriority.EVICTION_ORDER[c];
+                evicted = evictFrom(preferred, priority, frame -> frame.priority == priority);
+            }
+            if (!evicted)
+                throw new DbException("All pages are dirty or pinned, No valid page to evict!");
+        }
+    }
+
+    /**
+     * Evicts a clean, unpinned page that passes the filter, from the given
+     * shard if it has one, otherwise from another shard.
+     *
+     * @param priority the class of every page that passes the filter, so
+     *                 that shards without pages of that class are skipped;
+     *                 or null
+     * @return false if no shard has such a page
+     */
+    private boolean evictFrom(Shard preferred, CachePriority priority, Predicate<Frame> filter) {
+        if (preferred.evictOne(priority, filter)) {
+            return true;
+        }
+        for (Shard shard : shards) {
+            if (shard != preferred && shard.evictOne(priority, filter)) {
+                return true;
             }
         }
+        return false;
+    }
 
-        if (evict_pid == null)
-            throw new DbException("All pages are dirty, No valid page to evict!");
+    /**
+     * The frame that holds a cached page: the page itself, the number of
+     * pins on it and its latch. A frame lives as long as its page stays in
+     * the pool; replacing the page, as insertTuple does, keeps the frame.
+     */
+    private static class Frame {
+        volatile Page page;
+        /** The class of the page, from the catalog when it was added. */
+        final CachePriority priority;
+        /** Changed with the shard lock held. */
+        volatile int pins;
+        /** The strategy whose ring the page is in, if any. */
+        volatile BufferAccessStrategy owner;
+        /** The arena frame the page is a view over, or -1. */
+        int arenaFrame = -1;
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
 
-        try {
-            flushPage(evict_pid);
-            discardPage(evict_pid);
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+        Frame(Page page, CachePriority priority) {
+            this.page = page;
+            this.priority = priority;
         }
     }
 
-}
+    /**
+     * A partition of the pool: the frames of the pages whose ids hash to it
+     * and the policy that picks which of them to evict. Pages are read and
+     * written back without the shard lock; they are added, replaced,
+     * removed and pinned with it held.
+     */
+    private class Shard {
+        final ReplacementPolicy policy;
+        final ConcurrentHashMap<PageId, Frame> frames;
+        /** The number of pages of each class; changed with the shard lock held. */
+        final int[] classPages = new int[CachePriority.values().length];
+
+        Shard(ReplacementPolicy policy, int capacity) {
+            this.policy = policy;
+            frames = new ConcurrentHashMap<>(capacity);
+        }
+
+        Page get(PageId pid) {
+            Frame frame = frames.get(pid);
+            return frame == null ? null : frame.page;
+        }
 
+        Frame frame(PageId pid) {
+            return frames.get(pid);
+        }
+
+        /**
+         * Adds or replaces a page; the caller holds the shard lock. A page
+         * added to an off-heap pool is cached as a view, if it can be.
+         *
+         * @return the page as cached
+         */
+        Page put(Page page) {
+            Frame frame = frames.get(page.getId());
+            if (frame != null) {
+                releaseArenaFrame(frame);
+                frame.page = page;
+            } else {
+                frame = new Frame(page, Database.getCatalog().getCachePriority(page.getId()));
+                if (arena != null && page instanceof HeapPage && ((HeapPage) page).canBeViewed()
+                        && arena.getFrameSize() == pageSize) {
+                    frame.arenaFrame = arena.allocate();
+                    if (frame.arenaFrame >= 0) {
+                        frame.page = new HeapPage((HeapPage) page, arena.frame(frame.arenaFrame));
+                    }
+                }
+                frames.put(page.getId(), frame);
+                compressedCache.invalidate(page.getId());
+                numCached.incrementAndGet();
+                classPages[frame.priority.ordinal()]++;
+                getTableUsage(page.getId().getTableId()).pageAdded();
+                policy.pageAdded(page.getId());
+            }
+            return frame.page;
+        }
+
+        /**
+         * Replaces the cached copy of a page, if there is one.
+         */
+        synchronized void replace(Page page) {
+            Frame frame = frames.get(page.getId());
+            if (frame != null) {
+                releaseArenaFrame(frame);
+                frame.page = page;
+            }
+        }
+
+        /**
+         * Detaches the view a frame holds, if it holds one, from its arena
+         * frame and frees the arena frame; the caller holds the shard lock.
+         */
+        private void releaseArenaFrame(Frame frame) {
+            if (frame.arenaFrame >= 0) {
+                ((HeapPage) frame.page).detach();
+                arena.release(frame.arenaFrame);
+                frame.arenaFrame = -1;
+            }
+        }
+
+        /**
+         * Removes a page, first writing it if it is a committed page that
+         * waits for the background writer, and drops any copy of it from
+         * the compressed tier.
+         */
+        synchronized void remove(PageId pid) {
+            readAhead.cancel(pid);
+            compressedCache.invalidate(pid);
+            Frame frame = frames.get(pid);
+            if (frame != null) {
+                Long since = writer.pendingSince(pid);
+                if (since != null && frame.page.isDirty() == null) {
+                    // written while still cached, so no one reads a stale copy
+                    try {
+                        getPageFile(pid).writePage(frame.page);
+                        writer.pageWritten(pid, since, true);
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace();
+                    }
+                }
+                frames.remove(pid);
+                releaseArenaFrame(frame);
+                numCached.decrementAndGet();
+                classPages[frame.priority.ordinal()]--;
+                getTableUsage(pid.getTableId()).pageRemoved();
+            }
+            policy.pageRemoved(pid);
+        }
+
+        /**
+         * Removes a page of the given strategy's ring, if it is still in
+         * the ring and can be removed without a write: it is clean,
+         * unpinned and not waiting for the background writer.
+         *
+         * @return true if the page was removed
+         */
+        synchronized boolean recycle(PageId pid, BufferAccessStrategy strategy) {
+            Frame frame = frames.get(pid);
+            if (frame == null || frame.owner != strategy || frame.pins > 0
+                    || frame.page.isDirty() != null || writer.pendingSince(pid) != null) {
+                return false;
+            }
+            remove(pid);
+            return true;
+        }
+
+        /**
+         * Adds the pages tid has dirtied to pages.
+         */
+        void dirtiedBy(TransactionId tid, List<Page> pages) {
+            for (Frame frame : frames.values()) {
+                if (tid.equals(frame.page.isDirty())) {
+                    pages.add(frame.page);
+                }
+            }
+        }
+
+        /**
+         * Pins a cached page.
+         *
+         * @return the page, or null if it is not cached
+         */
+        synchronized Page pin(PageId pid) {
+            Frame frame = frames.get(pid);
+            if (frame == null) {
+                return null;
+            }
+            frame.pins++;
+            return frame.page;
+        }
+
+        synchronized void unpin(PageId pid) {
+            Frame frame = frames.get(pid);
+            if (frame != null && frame.pins > 0) {
+                frame.pins--;
+            }
+        }
+
+        synchronized int pinCount(PageId pid) {
+            Frame frame = frames.get(pid);
+            return frame == null ? 0 : frame.pins;
+        }
+
+        /**
+         * Writes a dirty page, or a committed one that waits for the
+         * background writer, to disk, holding its latch in shared mode so
+         * that no one modifies it halfway through. The shard lock is not
+         * held, since the latch holder may need it.
+         */
+        void flushPage(PageId pid) throws IOException {
+            Frame frame = frames.get(pid);
+            Long since = writer.pendingSince(pid);
+            if (frame != null && (frame.page.isDirty() != null || since != null)) {
+                readAhead.cancel(pid);
+                frame.latch.readLock().lock();
+                try {
+                    Page page = frame.page;
+                    getPageFile(pid).writePage(page);
+                    page.markDirty(false, null);
+                } finally {
+                    frame.latch.readLock().unlock();
+                }
+                if (since != null) {
+                    writer.pageWritten(pid, since, false);
+                }
+            }
+        }
+
+        /**
+         * Writes the pages dirtied by tid to disk, or every dirty page if
+         * tid is null.
+         */
+        void flush(TransactionId tid) throws IOException {
+            for (Frame frame : frames.values()) {
+                TransactionId dirtier = frame.page.isDirty();
+                PageId pid = frame.page.getId();
+                if (tid == null ? dirtier != null || writer.pendingSince(pid) != null : tid.equals(dirtier)) {
+                    flushPage(pid);
+                }
+            }
+        }
+
+        /**
+         * Evicts a clean, unpinned page of this shard, from the lowest
+         * priority class that has one.
+         *
+         * @return false if the shard has no such page
+         */
+        boolean evictOne() {
+            for (CachePriority priority : CachePriority.EVICTION_ORDER) {
+                if (evictOne(priority, frame -> frame.priority == priority)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Evicts a clean, unpinned page of this shard that passes the
+         * filter.
+         *
+         * @param priority the class of every page that passes the filter,
+         *                 or null
+         * @return false if the shard has no such page
+         */
+        synchronized boolean evictOne(CachePriority priority, Predicate<Frame> filter) {
+            if (priority != null && classPages[priority.ordinal()] == 0) {
+                return false;
+            }
+            PageId evict_pid;
+            while (true) {
+                evict_pid = policy.chooseVictim(pid -> {
+                    Frame frame = frames.get(pid);
+                    return frame == null
+                            || (frame.pins == 0 && frame.page.isDirty() == null && filter.test(frame));
+                });
+                if (evict_pid == null || frames.containsKey(evict_pid)) {
+                    break;
+                }
+                // the policy still tracks a page that has left the shard
+                policy.pageRemoved(evict_pid);
+            }
+            if (evict_pid == null) {
+                return false;
+            }
+            Page page = frames.get(evict_pid).page;
+            remove(evict_pid);
+            // under the shard lock, so that no newer copy is cached meanwhile
+            compressedCache.put(page);
+            return true;
+        }
+    }
+
+}
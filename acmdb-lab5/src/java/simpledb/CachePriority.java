@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * The priority class of a table's pages in the BufferPool. When the pool
+ * has to evict a page it picks, through its ReplacementPolicy, a transient
+ * page if it has an evictable one, otherwise a normal page, and a page to
+ * keep only when nothing else can go. Classes are set per table in the
+ * {@link Catalog}; a B+ tree's internal pages can be given a class of their
+ * own, see {@link Catalog#setIndexCachePriority}.
+ */
+public enum CachePriority {
+    /** Pages that are evicted last, such as small dimension tables. */
+    KEEP,
+    /** The default. */
+    NORMAL,
+    /** Pages that are evicted first, such as bulk tables read once. */
+    TRANSIENT;
+
+    /** The classes in the order their pages are evicted. */
+    static final CachePriority[] EVICTION_ORDER = {TRANSIENT, NORMAL, KEEP};
+}
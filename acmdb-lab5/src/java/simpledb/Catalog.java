@@ -22,6 +22,9 @@ public class Catalog {
         private DbFile file;
         private String name;
         private String pkeyField;
+        private volatile CachePriority priority = CachePriority.NORMAL;
+        private volatile CachePriority indexPriority = null;
+        private volatile int bufferQuota = 0;
 
         public DbTable(DbFile file,String name,String pkeyField) {
             this.file = file;
@@ -44,6 +47,7 @@ public class Catalog {
 
     Map<Integer, DbTable> id2table;
     Map<String, Integer> name2id;
+    private final Map<String, Tablespace> tablespaces = new ConcurrentHashMap<>();
 
     /**
      * Constructor.
@@ -112,7 +116,11 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        return id2table.get(tableid).getFile();
+        DbTable table = id2table.get(tableid);
+        if (table == null) {
+            throw new NoSuchElementException();
+        }
+        return table.getFile();
     }
 
     public String getPrimaryKey(int tableid) {
@@ -123,6 +131,92 @@ public class Catalog {
         }
     }
 
+    /**
+     * Sets the priority class of the table's pages in the buffer pool. It
+     * applies to pages cached from then on.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setCachePriority(int tableid, CachePriority priority) {
+        table(tableid).priority = priority;
+    }
+
+    /**
+     * Sets the priority class of a B+ tree's internal, root pointer and
+     * header pages in the buffer pool, or null to give them the table's
+     * class. It applies to pages cached from then on.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setIndexCachePriority(int tableid, CachePriority priority) {
+        table(tableid).indexPriority = priority;
+    }
+
+    /**
+     * Returns the priority class of a page in the buffer pool; NORMAL if
+     * its table doesn't exist.
+     */
+    public CachePriority getCachePriority(PageId pid) {
+        DbTable table = id2table.get(pid.getTableId());
+        if (table == null) {
+            return CachePriority.NORMAL;
+        }
+        CachePriority index = table.indexPriority;
+        if (index != null && pid instanceof BTreePageId
+                && ((BTreePageId) pid).pgcateg() != BTreePageId.LEAF) {
+            return index;
+        }
+        return table.priority;
+    }
+
+    /**
+     * Limits the number of the table's pages in the buffer pool: once it
+     * has that many, each page of the table read into the pool replaces
+     * another of its pages, if one can be evicted. 0 means no limit.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setBufferQuota(int tableid, int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("negative buffer quota " + pages);
+        }
+        table(tableid).bufferQuota = pages;
+    }
+
+    /**
+     * Returns the buffer pool quota of the table, 0 if it has none or
+     * doesn't exist.
+     */
+    public int getBufferQuota(int tableid) {
+        DbTable table = id2table.get(tableid);
+        return table == null ? 0 : table.bufferQuota;
+    }
+
+    private DbTable table(int tableid) {
+        DbTable table = id2table.get(tableid);
+        if (table == null) {
+            throw new NoSuchElementException();
+        }
+        return table;
+    }
+
+    /**
+     * Adds a tablespace, replacing any tablespace of the same name. Tables
+     * are placed in it by {@link #loadSchema}.
+     */
+    public void addTablespace(Tablespace tablespace) {
+        tablespaces.put(tablespace.getName(), tablespace);
+    }
+
+    /**
+     * Returns the tablespace with the given name.
+     * @throws NoSuchElementException if the tablespace doesn't exist
+     */
+    public Tablespace getTablespace(String name) throws NoSuchElementException {
+        Tablespace tablespace = tablespaces.get(name);
+        if (tablespace == null) {
+            throw new NoSuchElementException("no tablespace " + name);
+        }
+        return tablespace;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return id2table.keySet().iterator();
     }
@@ -131,14 +225,44 @@ public class Catalog {
         return id2table.get(id).getName();
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
+        for (DbTable table : id2table.values()) {
+            try {
+                table.getFile().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         id2table.clear();
         name2id.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <code>name (field type [pk], ...) [options]</code>,
+     * where the supported options are the following; at most one of the storage
+     * formats slotted, compressed and pax may be given:
+     * <ul>
+     * <li><code>mmap</code> -- read the table's pages through a memory mapping</li>
+     * <li><code>slotted</code> -- store the table as a {@link SlottedFile}
+     *     with variable-length records</li>
+     * <li><code>compressed</code> -- store the table as a
+     *     {@link CompressedHeapFile}, whose pages are compressed on disk</li>
+     * <li><code>pax</code> -- store the table as a {@link PaxFile}, whose
+     *     pages store each column contiguously</li>
+     * <li><code>keep</code>, <code>transient</code> -- the {@link CachePriority}
+     *     of the table's pages in the buffer pool</li>
+     * <li><code>quota=N</code> -- keep at most N of the table's pages in
+     *     the buffer pool, see {@link #setBufferQuota}</li>
+     * <li><code>tablespace=T</code> -- store the table in tablespace T
+     *     rather than next to the catalog file; a table in a tablespace of
+     *     several directories is a {@link StripedHeapFile}, which supports
+     *     none of the other storage options</li>
+     * </ul>
+     * Tablespaces are declared on lines of the form
+     * <code>tablespace T dir [dir ...]</code>, before the tables in them;
+     * relative directories are relative to the catalog file's directory.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -148,6 +272,16 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
+                if (line.trim().toLowerCase().startsWith("tablespace ") && !line.contains("(")) {
+                    String[] els = line.trim().split("\\s+");
+                    File[] dirs = new File[els.length - 2];
+                    for (int i = 0; i < dirs.length; i++) {
+                        File dir = new File(els[i + 2]);
+                        dirs[i] = dir.isAbsolute() ? dir : new File(baseFolder, els[i + 2]);
+                    }
+                    addTablespace(new Tablespace(els[1].toLowerCase(), dirs));
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -176,17 +310,73 @@ public class Catalog {
                         }
                     }
                 }
+                // table options follow the field list, e.g. "name (f int) mmap"
+                boolean memoryMapped = false;
+                String format = null;
+                CachePriority priority = CachePriority.NORMAL;
+                int quota = 0;
+                Tablespace tablespace = null;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String opt : options.split("\\s+")) {
+                    opt = opt.toLowerCase();
+                    if (opt.isEmpty())
+                        continue;
+                    if (opt.equals("mmap"))
+                        memoryMapped = true;
+                    else if (opt.equals("slotted") || opt.equals("compressed") || opt.equals("pax")) {
+                        if (format != null) {
+                            System.out.println("Options " + format + " and " + opt + " are exclusive for table " + name);
+                            System.exit(0);
+                        }
+                        format = opt;
+                    } else if (opt.equals("keep"))
+                        priority = CachePriority.KEEP;
+                    else if (opt.equals("transient"))
+                        priority = CachePriority.TRANSIENT;
+                    else if (opt.startsWith("quota="))
+                        quota = Integer.parseInt(opt.substring("quota=".length()));
+                    else if (opt.startsWith("tablespace="))
+                        tablespace = getTablespace(opt.substring("tablespace=".length()));
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
+                }
+                if (format != null && memoryMapped) {
+                    System.out.println("Option mmap is not supported for " + format + " table " + name);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                if (tablespace != null)
+                    tableFile = tablespace.files(name + ".dat")[0];
+                DbFile tabHf;
+                if (tablespace != null && tablespace.isStriped()) {
+                    if (format != null || memoryMapped) {
+                        System.out.println("Striped tablespace " + tablespace.getName()
+                                + " is only supported for heap tables, not table " + name);
+                        System.exit(0);
+                    }
+                    tabHf = new StripedHeapFile(tablespace.files(name + ".dat"), t);
+                } else if ("slotted".equals(format))
+                    tabHf = new SlottedFile(tableFile, t);
+                else if ("compressed".equals(format))
+                    tabHf = new CompressedHeapFile(tableFile, t);
+                else if ("pax".equals(format))
+                    tabHf = new PaxFile(tableFile, t);
+                else
+                    tabHf = new HeapFile(tableFile, t, memoryMapped);
                 addTable(tabHf,name,primaryKey);
+                setCachePriority(tabHf.getId(), priority);
+                setBufferQuota(tabHf.getId(), quota);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | NoSuchElementException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy approximates LRU with the CLOCK (second chance) algorithm. The
+ * pages in the pool sit in a circular list of frames, each with a reference
+ * bit that is set when the page is requested. To pick a victim the clock
+ * hand sweeps the frames, clearing set reference bits and stopping at the
+ * first evictable page whose bit is already clear.
+ * <p>
+ * Every operation but the sweep takes constant time. CLOCK is not scan
+ * resistant: pages of a large sequential scan get their reference bit set
+ * like any other page.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    /** The page in each frame, or null if the frame is free. */
+    private final ArrayList<PageId> frames = new ArrayList<>();
+    private final ArrayList<Boolean> referenced = new ArrayList<>();
+    private final HashMap<PageId, Integer> frameOf = new HashMap<>();
+    private final ArrayDeque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand;
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            return;
+        }
+        Integer frame = freeFrames.poll();
+        if (frame == null) {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(false);
+        } else {
+            frames.set(frame, pid);
+            referenced.set(frame, false);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, true);
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame, null);
+            referenced.set(frame, false);
+            freeFrames.add(frame);
+        }
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = frames.size();
+        // two full turns: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(frame);
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(frame)) {
+                referenced.set(frame, false);
+            } else if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,298 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed on disk with
+ * {@link PageCodec}. Pages are compressed in writePage and decompressed in
+ * readPage, so the BufferPool and everything above it only ever see ordinary
+ * uncompressed HeapPages; a SeqScan reads fewer bytes from disk in exchange
+ * for the CPU time spent decompressing.
+ * <p>
+ * Compressed pages have different sizes, so page N no longer lives at
+ * N * pageSize. Instead each page is stored in an extent of the data file,
+ * and a page directory in a second file, named after the data file with a
+ * <code>.pgdir</code> suffix, holds one entry per page:
+ * <ul>
+ * <li>a long holding the offset of the page's extent in the data file;</li>
+ * <li>an int holding the compressed length of the page, which equals the
+ *     page size if the page is stored uncompressed;</li>
+ * <li>an int holding the capacity of the extent.</li>
+ * </ul>
+ * A rewritten page stays in its extent if it still fits and is otherwise
+ * moved to a new extent at the end of the file. Extents are rounded up to
+ * {@link #EXTENT_ALIGN} bytes to leave room for pages to grow a little;
+ * space freed by a moved page is not reused.
+ *
+ * @see PageCodec
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Bytes per page directory entry. */
+    static final int DIR_ENTRY_SIZE = 16;
+
+    /** Extents are a multiple of this many bytes. */
+    static final int EXTENT_ALIGN = 256;
+
+    private final File dirFile;
+    private final PageFileChannel dirChannel;
+
+    /** Per-thread buffer for compressed page bytes. */
+    private final ThreadLocal<byte[]> compressedBuffer = new ThreadLocal<>();
+
+    // the page directory, loaded from dirFile on first use; guarded by this
+    private boolean loaded;
+    private int numPages;
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private long dataEnd;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and its
+     * page directory. Both files are created on the first write if they do
+     * not exist.
+     *
+     * @param f
+     *            the file that stores the compressed pages
+     * @throws IllegalArgumentException if f is not empty but has no page
+     *         directory, e.g. because it is an ordinary HeapFile
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td, false);
+        this.dirFile = getDirectoryFile(f);
+        this.dirChannel = new PageFileChannel(dirFile);
+        if (!dirFile.exists() && f.length() > 0) {
+            throw new IllegalArgumentException(f + " has no page directory " + dirFile);
+        }
+    }
+
+    /**
+     * Returns the page directory file belonging to the data file f.
+     */
+    public static File getDirectoryFile(File f) {
+        return new File(f.getPath() + ".pgdir");
+    }
+
+    private synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        byte[] dir = new byte[(int) dirChannel.size()];
+        dirChannel.read(0, dir);
+        ByteBuffer bb = ByteBuffer.wrap(dir);
+        int n = dir.length / DIR_ENTRY_SIZE;
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            offsets[i] = bb.getLong();
+            lengths[i] = bb.getInt();
+            capacities[i] = bb.getInt();
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        }
+        numPages = n;
+        loaded = true;
+    }
+
+    private void ensureCapacity(int n) {
+        if (offsets.length < n) {
+            int cap = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, cap);
+            lengths = Arrays.copyOf(lengths, cap);
+            capacities = Arrays.copyOf(capacities, cap);
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    @Override
+    public synchronized int numPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        return numPages;
+    }
+
+    /**
+     * Returns the number of bytes the pages of this file take on disk.
+     */
+    public synchronized long getCompressedSize() {
+        numPages();
+        long size = 0;
+        for (int i = 0; i < numPages; i++) {
+            size += lengths[i];
+        }
+        return size;
+    }
+
+    private byte[] getCompressedBuffer() {
+        byte[] buf = compressedBuffer.get();
+        int len = PageCodec.maxCompressedLength(BufferPool.getPageSize());
+        if (buf == null || buf.length != len) {
+            buf = new byte[len];
+            compressedBuffer.set(buf);
+        }
+        return buf;
+    }
+
+    @Override
+    protected void readPageData(int pgNo, byte[] dst) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            load();
+            if (pgNo >= numPages) {
+                Arrays.fill(dst, (byte) 0);
+                return;
+            }
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+
+        if (length == BufferPool.getPageSize()) {
+            getChannel().read(offset, dst);
+            return;
+        }
+        byte[] compressed = getCompressedBuffer();
+        getChannel().read(offset, compressed, 0, length);
+        int n = PageCodec.decompress(compressed, 0, length, dst);
+        if (n < dst.length) {
+            throw new IOException("compressed page " + pgNo + " of " + getFile() + " is too short");
+        }
+    }
+
+    /**
+     * Reads the page's extent asynchronously and decompresses it on the
+     * thread the read completes on.
+     */
+    @Override
+    protected CompletableFuture<Void> readPageDataAsync(int pgNo, byte[] dst) {
+        long offset;
+        int length;
+        synchronized (this) {
+            try {
+                load();
+            } catch (IOException e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            if (pgNo >= numPages) {
+                Arrays.fill(dst, (byte) 0);
+                return CompletableFuture.completedFuture(null);
+            }
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+
+        if (length == BufferPool.getPageSize()) {
+            return getChannel().readAsync(offset, dst).thenApply(read -> null);
+        }
+        byte[] compressed = new byte[length];
+        return getChannel().readAsync(offset, compressed).thenApply(read -> {
+            try {
+                if (PageCodec.decompress(compressed, 0, length, dst) < dst.length) {
+                    throw new IOException("compressed page " + pgNo + " of " + getFile() + " is too short");
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    protected synchronized void writePageData(int pgNo, byte[] data) throws IOException {
+        load();
+        byte[] compressed = getCompressedBuffer();
+        int length = PageCodec.compress(data, data.length, compressed);
+        if (length >= data.length) {
+            // incompressible; store it as is
+            compressed = data;
+            length = data.length;
+        }
+
+        if (pgNo > numPages) {
+            throw new IllegalArgumentException("page " + pgNo + " is past the end of " + getFile());
+        }
+        if (pgNo == numPages) {
+            ensureCapacity(numPages + 1);
+            capacities[numPages++] = 0;
+        }
+        if (length > capacities[pgNo]) {
+            offsets[pgNo] = dataEnd;
+            capacities[pgNo] = (length + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+            dataEnd += capacities[pgNo];
+        }
+        lengths[pgNo] = length;
+
+        getChannel().write(offsets[pgNo], Arrays.copyOf(compressed, length));
+        ByteBuffer entry = ByteBuffer.allocate(DIR_ENTRY_SIZE);
+        entry.putLong(offsets[pgNo]).putInt(length).putInt(capacities[pgNo]);
+        dirChannel.write((long) pgNo * DIR_ENTRY_SIZE, entry.array());
+    }
+
+    /**
+     * Reads and decompresses each page separately.
+     */
+    @Override
+    protected void readPagesData(int firstPgNo, byte[] dst, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < count; i++) {
+            readPageData(firstPgNo + i, page);
+            System.arraycopy(page, 0, dst, i * pageSize, pageSize);
+        }
+    }
+
+    /**
+     * Compresses and writes each page separately; the new extents still
+     * follow each other in the data file.
+     */
+    @Override
+    protected synchronized void writePagesData(int firstPgNo, byte[] data, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < count; i++) {
+            writePageData(firstPgNo + i, Arrays.copyOfRange(data, i * pageSize, (i + 1) * pageSize));
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void close() throws IOException {
+        super.close();
+        dirChannel.close();
+    }
+
+    /**
+     * Copies every page of source into a new CompressedHeapFile stored in
+     * target (and its page directory), compressing each page. The pages are
+     * read directly, without going through the BufferPool; source must be in
+     * the Catalog and must not be modified while the conversion runs. The
+     * new file is not added to the Catalog.
+     *
+     * @param source the HeapFile to convert
+     * @param target the file to write; it and its page directory are
+     *               overwritten
+     * @return a CompressedHeapFile over target
+     */
+    public static CompressedHeapFile convert(HeapFile source, File target) throws IOException {
+        new FileOutputStream(target).close();
+        new FileOutputStream(getDirectoryFile(target)).close();
+        CompressedHeapFile cf = new CompressedHeapFile(target, source.getTupleDesc());
+        int numPages = source.numPages();
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            Page page = source.readPage(new HeapPageId(source.getId(), pgNo));
+            cf.writePageData(pgNo, page.getPageData());
+        }
+        cf.close();
+        return cf;
+    }
+}
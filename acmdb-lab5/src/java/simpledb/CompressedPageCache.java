@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CompressedPageCache is an optional second tier of a BufferPool, between
+ * the pool and the disk. Clean pages the pool evicts are compressed with
+ * {@link PageCodec} and kept here, up to a number of bytes; a page the pool
+ * has to read is taken from here, if it is here, instead of being read from
+ * its DbFile. Pages with empty slots, padded strings or repeated values
+ * compress several times over, so the two tiers hold more of the working
+ * set than the pool could in the same memory, at the cost of compressing
+ * every evicted page and decompressing every page found here.
+ * <p>
+ * A page is in the pool or here, never both: it leaves this cache when it
+ * is taken or when the pool discards it. Pages are dropped least recently
+ * stored first once the cache is full. Only the pages of DbFiles that can
+ * rebuild them from their data, see {@link DbFile#pageFromData}, are found
+ * here. A capacity of 0 disables the cache, which is the default.
+ *
+ * @see BufferPool#getCompressedCache()
+ * @Threadsafe
+ */
+public class CompressedPageCache {
+
+    /** A compressed page and the length of its data. */
+    private static class Entry {
+        final byte[] compressed;
+        final int length;
+
+        Entry(byte[] compressed, int length) {
+            this.compressed = compressed;
+            this.length = length;
+        }
+    }
+
+    /** Per-thread buffer for compressing pages. */
+    private final ThreadLocal<byte[]> buffer = new ThreadLocal<>();
+
+    /** In the order pages were stored, oldest first; guarded by this. */
+    private final LinkedHashMap<PageId, Entry> pages = new LinkedHashMap<>();
+    private long size;
+    private long rawSize;
+    private volatile long capacity;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache of the given capacity.
+     *
+     * @param capacity the most bytes of compressed pages to keep; 0
+     *                 disables the cache
+     */
+    CompressedPageCache(long capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Returns the most bytes of compressed pages the cache keeps.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the most bytes of compressed pages the cache keeps, dropping
+     * pages if it holds more; 0 empties and disables the cache.
+     */
+    public synchronized void setCapacity(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity " + capacity);
+        }
+        this.capacity = capacity;
+        shrinkTo(capacity);
+    }
+
+    /**
+     * Returns true if the cache keeps pages.
+     */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Returns the number of pages in the cache.
+     */
+    public synchronized int getNumPages() {
+        return pages.size();
+    }
+
+    /**
+     * Returns the number of bytes the compressed pages in the cache take.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the uncompressed size of the pages in the cache divided by
+     * their compressed size, or 0 if the cache is empty.
+     */
+    public synchronized double getCompressionRatio() {
+        return size == 0 ? 0 : (double) rawSize / size;
+    }
+
+    /**
+     * Returns the number of pages the pool took from the cache instead of
+     * reading them.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of pages the pool looked for in the cache and read
+     * from disk because they were not there.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Resets the hit and miss counters to zero.
+     */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Compresses and stores a clean page the pool evicted, replacing any
+     * copy of it, and drops the oldest pages until the cache fits its
+     * capacity again.
+     */
+    void put(Page page) {
+        long capacity = this.capacity;
+        if (capacity == 0) {
+            return;
+        }
+        byte[] data = page.getPageData();
+        byte[] buf = buffer.get();
+        int max = PageCodec.maxCompressedLength(data.length);
+        if (buf == null || buf.length < max) {
+            buf = new byte[max];
+            buffer.set(buf);
+        }
+        int n = PageCodec.compress(data, data.length, buf);
+        if (n > capacity) {
+            invalidate(page.getId());
+            return;
+        }
+        Entry entry = new Entry(Arrays.copyOf(buf, n), data.length);
+        synchronized (this) {
+            remove(page.getId());
+            shrinkTo(capacity - n);
+            pages.put(page.getId(), entry);
+            size += n;
+            rawSize += data.length;
+        }
+    }
+
+    /**
+     * Removes a page from the cache and rebuilds it.
+     *
+     * @param pid the page
+     * @param file the page's file
+     * @return the page, or null if it is not in the cache or its file
+     * cannot rebuild it
+     */
+    Page take(PageId pid, DbFile file) {
+        if (capacity == 0) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = remove(pid);
+        }
+        Page page = null;
+        if (entry != null) {
+            byte[] data = new byte[entry.length];
+            try {
+                PageCodec.decompress(entry.compressed, 0, entry.compressed.length, data);
+                page = file.pageFromData(pid, data);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        (page == null ? misses : hits).incrementAndGet();
+        return page;
+    }
+
+    /**
+     * Drops a page from the cache, because the pool caches or discards it.
+     */
+    void invalidate(PageId pid) {
+        if (capacity == 0) {
+            return;
+        }
+        synchronized (this) {
+            remove(pid);
+        }
+    }
+
+    private Entry remove(PageId pid) {
+        Entry entry = pages.remove(pid);
+        if (entry != null) {
+            size -= entry.compressed.length;
+            rawSize -= entry.length;
+        }
+        return entry;
+    }
+
+    private void shrinkTo(long bytes) {
+        Iterator<Map.Entry<PageId, Entry>> it = pages.entrySet().iterator();
+        while (size > bytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            size -= entry.compressed.length;
+            rawSize -= entry.length;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Database is a class that initializes several static variables used by the
@@ -55,11 +56,33 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, () -> new LruKPolicy(2));
+    }
+
+    /**
+     * Create a new instance of the buffer pool whose shards evict pages with
+     * replacement policies from the given supplier and return it
+     */
+    public static BufferPool resetBufferPool(int pages, Supplier<? extends ReplacementPolicy> policies) {
+        return resetBufferPool(new BufferPool(pages, policies));
+    }
+
+    /**
+     * Replace the buffer pool with the given one, e.g. one configured
+     * through a constructor the other reset methods do not reach, and
+     * return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
+        // the old pool's background work must not run on against it
+        BufferPool old = _instance.get()._bufferpool;
+        if (old != bufferPool) {
+            old.close();
+        }
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +98,9 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.close();
+        old._catalog.clear();
     }
 
 }
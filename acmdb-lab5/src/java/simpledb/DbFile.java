@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.io.*;
 
 /**
@@ -19,6 +20,45 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Reads the specified pages of this file from disk, in order. Runs of
+     * consecutive page numbers should be read with a single large read
+     * rather than one read per page; by default each page is read with
+     * {@link #readPage}.
+     *
+     * @param ids the pages to read, all of this file
+     * @return the pages, in the order of ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    public default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
+    /**
+     * Starts reading the specified page from disk and returns without
+     * waiting for the read, so that a caller can have several reads
+     * outstanding at once. By default the page is read with
+     * {@link #readPage} before this returns.
+     *
+     * @param id the page to read
+     * @return a future of the page, which completes exceptionally with an
+     * IllegalArgumentException if the page does not exist in this file, or
+     * with the error the read failed with
+     */
+    public default CompletableFuture<Page> readPageAsync(PageId id) {
+        CompletableFuture<Page> page = new CompletableFuture<>();
+        try {
+            page.complete(readPage(id));
+        } catch (RuntimeException e) {
+            page.completeExceptionally(e);
+        }
+        return page;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +68,72 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Pushes the specified pages, all of this file, to disk. Runs of
+     * consecutive page numbers should be written with a single large write
+     * rather than one write per page; by default each page is written with
+     * {@link #writePage}.
+     *
+     * @param pages the pages to write, in page number order
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    /**
+     * Rebuilds a page of this file from the bytes {@link Page#getPageData}
+     * returned for it, without reading the disk. The BufferPool uses this
+     * to keep evicted pages compressed in memory, see
+     * {@link CompressedPageCache}; by default it returns null, and the
+     * pages of the file are not kept.
+     *
+     * @param id the page
+     * @param data the page's data, which the page may keep
+     * @return the page, or null if this file cannot rebuild its pages
+     */
+    public default Page pageFromData(PageId id, byte[] data) {
+        return null;
+    }
+
+    /**
+     * Returns the map of pages in this DbFile with room for another tuple,
+     * which the BufferPool keeps up to date when it restores pages of an
+     * aborted transaction; by default null, for files that keep no map.
+     */
+    public default FreeSpaceMap getFreeSpaceMap() {
+        return null;
+    }
+
+    /**
+     * Returns the number of pages in this DbFile.
+     */
+    public int numPages();
+
+    /**
+     * Releases any file handles held by this DbFile. The file may still be
+     * used afterwards; it reopens its backing store on demand.
+     *
+     * @throws IOException if closing the backing store fails
+     */
+    public default void close() throws IOException {
+    }
+
+    /**
+     * Called by the BufferPool when a transaction that wrote pages of this
+     * file directly to disk, see {@link BufferPool#lockForDirectWrite},
+     * commits or aborts, before its locks are released. The BufferPool never
+     * held those pages, so on abort the file must restore them itself.
+     *
+     * @param tid the completing transaction
+     * @param commit true on commit, false on abort
+     * @throws IOException if restoring the pages fails
+     */
+    public default void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -68,6 +174,21 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile for a
+     * caller that only reads the given fields. Files that store columns
+     * separately may leave the other fields of the returned tuples unset
+     * (null) and skip decoding them; by default this is the same as
+     * {@link #iterator(TransactionId)}.
+     *
+     * @param columns the indexes of the fields the caller reads, or null for
+     *                all of them
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, Set<Integer> columns) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
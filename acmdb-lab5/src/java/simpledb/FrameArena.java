@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FrameArena is the off-heap memory of a BufferPool: page-sized frames cut
+ * from direct ByteBuffers, which the garbage collector never scans or
+ * moves. A direct buffer holds at most 2GB, so the frames of a larger pool
+ * come from several buffers. An arena can grow, but never gives memory
+ * back.
+ *
+ * @see BufferPool#isOffHeap()
+ * @Threadsafe
+ */
+class FrameArena {
+    private final int frameSize;
+
+    /** Replaced, never changed, when the arena grows. */
+    private volatile ByteBuffer[] frames = new ByteBuffer[0];
+
+    /** The free frames, a stack of frame numbers. */
+    private int[] free = new int[0];
+    private int numFree;
+
+    /**
+     * Allocates an arena of numFrames frames of frameSize bytes each.
+     */
+    FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        grow(numFrames);
+    }
+
+    /**
+     * Adds frames to the arena until it has numFrames, if it has fewer.
+     */
+    synchronized void grow(int numFrames) {
+        int old = frames.length;
+        if (numFrames <= old) {
+            return;
+        }
+        ByteBuffer[] grown = Arrays.copyOf(frames, numFrames);
+        int perChunk = Integer.MAX_VALUE / frameSize;
+        for (int first = old; first < numFrames; first += perChunk) {
+            int count = Math.min(perChunk, numFrames - first);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(count * frameSize);
+            for (int i = 0; i < count; i++) {
+                chunk.limit((i + 1) * frameSize).position(i * frameSize);
+                grown[first + i] = chunk.slice();
+            }
+        }
+        free = Arrays.copyOf(free, numFrames);
+        for (int i = numFrames - 1; i >= old; i--) {
+            free[numFree++] = i;
+        }
+        frames = grown;
+    }
+
+    /**
+     * Returns the size of each frame, in bytes.
+     */
+    int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the total size of the arena, in bytes.
+     */
+    long capacity() {
+        return (long) frames.length * frameSize;
+    }
+
+    /**
+     * Takes a free frame.
+     *
+     * @return the frame number, or -1 if every frame is taken
+     */
+    synchronized int allocate() {
+        return numFree == 0 ? -1 : free[--numFree];
+    }
+
+    /**
+     * Returns a frame taken with {@link #allocate}; whatever it holds may be
+     * overwritten from then on.
+     */
+    synchronized void release(int frame) {
+        free[numFree++] = frame;
+    }
+
+    /**
+     * Returns the memory of a frame. Callers must not change its position
+     * or limit; they read and write it through duplicates.
+     */
+    ByteBuffer frame(int frame) {
+        return frames[frame];
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile have at least one empty
+ * slot, so that HeapFile.insertTuple can go straight to a page with room
+ * instead of locking every page of the file in turn.
+ * <p>
+ * The map is kept in memory only. It is built lazily from the page headers
+ * on disk the first time it is consulted (and extended whenever the file has
+ * grown past the pages seen so far), and is then kept up to date by
+ * HeapPage.insertTuple and HeapPage.deleteTuple, and by the BufferPool when
+ * it restores the pages of an aborted transaction. Because pages can also
+ * change behind its back (e.g. when recovery rewrites them), the map
+ * is only a hint: callers must check the page itself once they hold its
+ * lock, and report a stale entry with {@link #update}.
+ * <p>
+ * By default the map reads HeapPage headers straight from the channel; files
+ * with other page formats override {@link #getHeaderSize()} and
+ * {@link #hasFreeSpace(byte[])}, and files that do not store pages verbatim
+ * override {@link #readHeader(int, byte[])}.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final ConcurrentSkipListSet<Integer> freePages;
+    private final PageFileChannel channel;
+    protected final TupleDesc td;
+
+    /** Number of leading pages of the file whose headers have been scanned. */
+    private int scannedPages;
+
+    /**
+     * Creates an empty free-space map for the HeapFile stored in the given
+     * channel, whose tuples have the given TupleDesc.
+     */
+    public FreeSpaceMap(PageFileChannel channel, TupleDesc td) {
+        this.freePages = new ConcurrentSkipListSet<>();
+        this.channel = channel;
+        this.td = td;
+        this.scannedPages = 0;
+    }
+
+    /**
+     * Records whether the specified page has at least one empty slot.
+     *
+     * @param pgNo the page number
+     * @param hasFreeSlots true if a tuple can be inserted into the page
+     */
+    public void update(int pgNo, boolean hasFreeSlots) {
+        if (hasFreeSlots) {
+            freePages.add(pgNo);
+        } else {
+            freePages.remove(pgNo);
+        }
+    }
+
+    /**
+     * Records whether the given page, e.g. one put back to its before image
+     * when the transaction that filled it aborts, has an empty slot.
+     *
+     * @param page a page of the file, in its current state
+     */
+    public void update(Page page) {
+        update(page.getId().pageNumber(), hasFreeSpace(page.getPageData()));
+    }
+
+    /**
+     * Returns the lowest page number greater than after that is believed to
+     * have an empty slot, or null if there is none.
+     *
+     * @param after the page number to search after; -1 to start at page 0
+     * @param numPages the current number of pages in the file
+     */
+    public Integer nextFreePage(int after, int numPages) {
+        scan(numPages);
+        return freePages.higher(after);
+    }
+
+    /**
+     * Returns the number of leading bytes of a page that
+     * {@link #hasFreeSpace(byte[])} needs to look at.
+     */
+    protected int getHeaderSize() {
+        return (getNumSlots() + 7) / 8;
+    }
+
+    /**
+     * Returns true if the page whose leading {@link #getHeaderSize()} bytes
+     * are given has room for another tuple.
+     */
+    protected boolean hasFreeSpace(byte[] header) {
+        int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] & (0x1 << (i % 8))) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the leading header.length bytes of page pgNo into header.
+     */
+    protected void readHeader(int pgNo, byte[] header) throws IOException {
+        channel.read((long) pgNo * BufferPool.getPageSize(), header);
+    }
+
+    private int getNumSlots() {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Reads the headers of pages [scannedPages, numPages) from disk and
+     * records the ones with room for another tuple.
+     */
+    private synchronized void scan(int numPages) {
+        if (scannedPages >= numPages) {
+            return;
+        }
+        byte[] header = new byte[getHeaderSize()];
+
+        for (int pgNo = scannedPages; pgNo < numPages; pgNo++) {
+            try {
+                readHeader(pgNo, header);
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            if (hasFreeSpace(header)) {
+                freePages.add(pgNo);
+            }
+        }
+        scannedPages = numPages;
+    }
+}
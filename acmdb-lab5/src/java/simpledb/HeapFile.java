@@ -1,7 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -17,6 +21,18 @@ public class HeapFile implements DbFile {
 
     private File f;
     private TupleDesc td;
+    private final PageFileChannel channel;
+    private final boolean memoryMapped;
+    private final FreeSpaceMap freeSpaceMap;
+
+    /** Number of pages bulkAppend packs in memory before writing them out. */
+    private static final int BULK_APPEND_PAGES = 64;
+
+    /**
+     * The pages appended by each live transaction's bulkAppend calls, as
+     * {first page, number of pages} ranges, to be emptied if it aborts.
+     */
+    private final ConcurrentHashMap<TransactionId, List<int[]>> bulkAppends = new ConcurrentHashMap<>();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,8 +42,47 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * pages from a memory mapping of the file instead of copying them in with
+     * read calls. Memory-mapped mode suits large, read-mostly tables; writes
+     * still go through the file channel and the mapping grows as pages are
+     * appended.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether pages are read through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         this.f = f;
         this.td = td;
+        this.channel = new PageFileChannel(f);
+        this.memoryMapped = memoryMapped;
+        this.freeSpaceMap = new FreeSpaceMap(channel, td) {
+            @Override
+            protected void readHeader(int pgNo, byte[] header) throws IOException {
+                readPageData(pgNo, header);
+            }
+        };
+    }
+
+    /**
+     * Returns the map of pages in this HeapFile that have empty slots.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * Returns true if this HeapFile reads its pages through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -61,18 +116,32 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    // see DbFile.java for javadocs
+    public Page pageFromData(PageId pid, byte[] data) {
+        try {
+            return new HeapPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         int tableId = pid.getTableId();
         int pgNo = pid.pageNumber();
         int pageSize = BufferPool.getPageSize();
-        byte[] data = HeapPage.createEmptyPageData();
         HeapPage page = null;
 
         try {
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
-            raf.seek(pgNo * pageSize);
-            raf.read(data, 0, data.length);
+            if (memoryMapped) {
+                ByteBuffer mapped = channel.mapPage(pgNo, pageSize);
+                if (mapped != null) {
+                    return new HeapPage(new HeapPageId(tableId, pgNo), mapped);
+                }
+            }
+            byte[] data = channel.getReadBuffer(pageSize);
+            readPageData(pgNo, data);
             page = new HeapPage(new HeapPageId(tableId, pgNo), data);
         } catch (IOException e) {
             e.printStackTrace();
@@ -80,16 +149,151 @@ public class HeapFile implements DbFile {
         return page;
     }
 
+    /**
+     * Reads the page through {@link #readPageDataAsync}; mapped files read
+     * it with {@link #readPage}, since it costs no read call.
+     */
+    public CompletableFuture<Page> readPageAsync(PageId pid) {
+        if (memoryMapped) {
+            return DbFile.super.readPageAsync(pid);
+        }
+        HeapPageId id = new HeapPageId(pid.getTableId(), pid.pageNumber());
+        byte[] data = new byte[BufferPool.getPageSize()];
+        return readPageDataAsync(pid.pageNumber(), data).thenApply(read -> {
+            try {
+                return new HeapPage(id, data);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Reads each run of consecutive pages with one readPagesData call and
+     * builds the pages from the bytes of the run.
+     */
+    public List<Page> readPages(List<PageId> pids) {
+        if (memoryMapped) {
+            // mapped pages cost no read calls to begin with
+            return DbFile.super.readPages(pids);
+        }
+        int pageSize = BufferPool.getPageSize();
+        List<Page> pages = new ArrayList<>(pids.size());
+        try {
+            for (int start = 0; start < pids.size(); ) {
+                int first = pids.get(start).pageNumber();
+                int end = start + 1;
+                while (end < pids.size() && pids.get(end).pageNumber() == first + end - start) {
+                    end++;
+                }
+                byte[] run = new byte[(end - start) * pageSize];
+                readPagesData(first, run, end - start);
+                for (int i = start; i < end; i++) {
+                    HeapPageId pid = new HeapPageId(pids.get(i).getTableId(), first + i - start);
+                    pages.add(new HeapPage(pid, ByteBuffer.wrap(run, (i - start) * pageSize, pageSize)));
+                }
+                start = end;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pages;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        PageId pid = page.getId();
-        int pgNo = pid.pageNumber();
+        ByteBuffer buf = channel.getWriteBuffer(BufferPool.getPageSize());
+        page.writePageData(buf);
+        writePageData(page.getId().pageNumber(), buf.array());
+    }
+
+    /**
+     * Writes each run of consecutive pages with one sequential write through
+     * {@link #writePagesData}.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
         int pageSize = BufferPool.getPageSize();
-        byte[] data = page.getPageData();
+        for (int start = 0; start < pages.size(); ) {
+            int first = pages.get(start).getId().pageNumber();
+            int end = start + 1;
+            while (end < pages.size() && pages.get(end).getId().pageNumber() == first + end - start) {
+                end++;
+            }
+            if (end - start == 1) {
+                writePage(pages.get(start));
+            } else {
+                ByteBuffer buf = ByteBuffer.allocate((end - start) * pageSize);
+                for (int i = start; i < end; i++) {
+                    pages.get(i).writePageData(buf);
+                }
+                writePagesData(first, buf.array(), end - start);
+            }
+            start = end;
+        }
+    }
 
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        raf.seek((long) pgNo * pageSize);
-        raf.write(data, 0, data.length);
+    /**
+     * Reads the first dst.length bytes of page pgNo, in HeapPage format, into
+     * dst. Bytes past the end of the file read as zeros.
+     *
+     * @param pgNo the page number
+     * @param dst the destination; at most one page long
+     */
+    protected void readPageData(int pgNo, byte[] dst) throws IOException {
+        channel.read((long) pgNo * BufferPool.getPageSize(), dst);
+    }
+
+    /**
+     * Starts reading page pgNo like {@link #readPageData}, and returns
+     * without waiting for the read.
+     *
+     * @param pgNo the page number
+     * @param dst the destination; at most one page long, and not to be
+     *            touched until the read completes
+     * @return a future that completes when dst holds the page
+     */
+    protected CompletableFuture<Void> readPageDataAsync(int pgNo, byte[] dst) {
+        return channel.readAsync((long) pgNo * BufferPool.getPageSize(), dst).thenApply(read -> null);
+    }
+
+    /**
+     * Reads count whole pages in HeapPage format, pages firstPgNo onwards,
+     * back to back into the start of dst with one sequential read.
+     */
+    protected void readPagesData(int firstPgNo, byte[] dst, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        channel.read((long) firstPgNo * pageSize, dst, 0, count * pageSize);
+    }
+
+    /**
+     * Writes data, a whole page in HeapPage format, as page pgNo of the file.
+     * pgNo may be at most numPages().
+     */
+    protected void writePageData(int pgNo, byte[] data) throws IOException {
+        channel.write((long) pgNo * BufferPool.getPageSize(), data);
+    }
+
+    /**
+     * Writes count whole pages in HeapPage format, stored back to back at the
+     * start of data, as pages firstPgNo onwards with one sequential write.
+     * firstPgNo may be at most numPages().
+     */
+    protected void writePagesData(int firstPgNo, byte[] data, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        channel.write((long) firstPgNo * pageSize, data, 0, count * pageSize);
+    }
+
+    /**
+     * Returns the channel over the file backing this HeapFile.
+     */
+    protected PageFileChannel getChannel() {
+        return channel;
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
     }
 
     /**
@@ -103,22 +307,196 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        HeapPageId pid;
-        HeapPage page;
-        for(int pgNo = 0; pgNo < numPages(); pgNo++) {
-            pid = new HeapPageId(getId(), pgNo);
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        BufferPool bufferPool = Database.getBufferPool();
+        int pgNo = -1;
+        while (true) {
+            Integer next = freeSpaceMap.nextFreePage(pgNo, numPages());
+            pgNo = next != null ? next : appendEmptyPage();
+
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE);
+            try {
+                if (page.getNumEmptySlots() > 0) {
+                    bufferPool.latchPage(pid, Permissions.READ_WRITE);
+                    try {
+                        page.insertTuple(t);
+                    } finally {
+                        bufferPool.unlatchPage(pid, Permissions.READ_WRITE);
+                    }
+                    return new ArrayList<>(Collections.singletonList(page));
+                }
+            } finally {
+                bufferPool.unpinPage(tid, pid);
+            }
+
+            // the free-space map was stale; don't keep a lock on a page we didn't use
+            freeSpaceMap.update(pgNo, false);
+            if (!held) {
+                bufferPool.releasePage(tid, pid);
+            }
+        }
+    }
+
+    /**
+     * Writes an empty page at the end of the file and returns its number.
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        writePageData(pgNo, HeapPage.createEmptyPageData());
+        freeSpaceMap.update(pgNo, true);
+        return pgNo;
+    }
+
+    /**
+     * Appends every tuple of tuples to new pages at the end of the file on
+     * behalf of tid, for loading large batches. Unlike
+     * {@link BufferPool#insertTuple}, which goes through the BufferPool and a
+     * lock for every tuple, tuples are packed into full pages in memory and
+     * written {@value #BULK_APPEND_PAGES} pages at a time with sequential
+     * writes; the BufferPool never caches the new pages. Free space on
+     * existing pages is not used, and the appended tuples are not given
+     * RecordIds.
+     * <p>
+     * Each new page is locked exclusively for tid through
+     * {@link BufferPool#lockForDirectWrite}, so other transactions cannot
+     * read it before tid commits, and is logged as an update from an empty
+     * page before it is written. If tid aborts, the appended pages are
+     * overwritten with empty pages; they stay in the file and are reused by
+     * later inserts. If tid commits, the TableStats of the table, if it has
+     * any, are updated with the new tuples.
+     *
+     * @param tid the transaction appending the tuples
+     * @param tuples the tuples to append
+     * @return the number of tuples appended
+     * @throws DbException if a tuple does not match this file's TupleDesc
+     */
+    public int bulkAppend(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        int numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        ByteBuffer batch = ByteBuffer.allocate(BULK_APPEND_PAGES * pageSize);
+        byte[] data = batch.array();
+        int pages = 0;
+        int slot = 0;
+        int count = 0;
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (!td.equals(t.getTupleDesc())) {
+                throw new DbException("Tupledesc is mismatch!");
+            }
+            if (slot == numSlots) {
+                slot = 0;
+                if (++pages == BULK_APPEND_PAGES) {
+                    appendPages(tid, data, pages, false);
+                    Arrays.fill(data, (byte) 0);
+                    pages = 0;
+                }
+            }
+
+            int base = pages * pageSize;
+            data[base + slot / 8] |= (byte) (1 << (slot % 8));
+            batch.position(base + headerSize + slot * tupleSize);
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(batch);
+            }
+            slot++;
+            count++;
+        }
+        if (slot > 0) {
+            appendPages(tid, data, pages + 1, slot < numSlots);
+        }
+        return count;
+    }
+
+    /**
+     * Locks, logs and writes the first count pages of data as new pages at
+     * the end of the file.
+     *
+     * @param lastHasRoom whether the last of the pages has empty slots
+     */
+    private synchronized void appendPages(TransactionId tid, byte[] data, int count, boolean lastHasRoom)
+            throws IOException, TransactionAbortedException {
+        int pageSize = BufferPool.getPageSize();
+        int first = numPages();
+        LogFile log = Database.getLogFile();
+        byte[] empty = HeapPage.createEmptyPageData();
+        for (int i = 0; i < count; i++) {
+            HeapPageId pid = new HeapPageId(getId(), first + i);
+            Database.getBufferPool().lockForDirectWrite(tid, pid);
+            byte[] after = Arrays.copyOfRange(data, i * pageSize, (i + 1) * pageSize);
+            log.logWrite(tid, new HeapPage(pid, empty), new HeapPage(pid, after));
+        }
+        // write-ahead: the before-images must be durable before the pages are
+        log.force();
+
+        writePagesData(first, data, count);
+        for (int i = 0; i < count; i++) {
+            freeSpaceMap.update(first + i, lastHasRoom && i == count - 1);
+        }
+        bulkAppends.computeIfAbsent(tid, k -> new ArrayList<>()).add(new int[] {first, count});
+    }
 
-            if(page.getNumEmptySlots() > 0) {
-                page.insertTuple(t);
-                return new ArrayList<>(Collections.singletonList(page));
+    /**
+     * Adds the pages tid appended with bulkAppend to the table's statistics
+     * if it committed, or empties them if it aborted.
+     */
+    @Override
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        List<int[]> ranges = bulkAppends.remove(tid);
+        if (ranges == null) {
+            return;
+        }
+        if (commit) {
+            addToStats(ranges);
+            return;
+        }
+        byte[] empty = new byte[BULK_APPEND_PAGES * BufferPool.getPageSize()];
+        for (int[] range : ranges) {
+            for (int done = 0; done < range[1]; done += BULK_APPEND_PAGES) {
+                writePagesData(range[0] + done, empty, Math.min(BULK_APPEND_PAGES, range[1] - done));
+            }
+            for (int i = 0; i < range[1]; i++) {
+                // drop any copy read ahead before the pages were emptied
+                Database.getBufferPool().discardPage(new HeapPageId(getId(), range[0] + i));
+                freeSpaceMap.update(range[0] + i, true);
+            }
+        }
+    }
+
+    /**
+     * Adds the tuples on the given {first page, number of pages} ranges to
+     * the table's TableStats, if it has any. The pages are read back a
+     * batch at a time, so that bulkAppend need not keep its tuples until
+     * commit.
+     */
+    private void addToStats(List<int[]> ranges) throws IOException {
+        TableStats stats;
+        try {
+            stats = TableStats.getTableStats(Database.getCatalog().getTableName(getId()));
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (stats == null) {
+            return;
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[BULK_APPEND_PAGES * pageSize];
+        for (int[] range : ranges) {
+            for (int done = 0; done < range[1]; done += BULK_APPEND_PAGES) {
+                int count = Math.min(BULK_APPEND_PAGES, range[1] - done);
+                readPagesData(range[0] + done, data, count);
+                for (int i = 0; i < count; i++) {
+                    HeapPageId pid = new HeapPageId(getId(), range[0] + done + i);
+                    Iterator<Tuple> it = new HeapPage(pid, ByteBuffer.wrap(data, i * pageSize, pageSize)).iterator();
+                    while (it.hasNext()) {
+                        stats.addTuple(it.next());
+                    }
+                }
             }
         }
-        pid = new HeapPageId(getId(), numPages());
-        page = new HeapPage(pid, HeapPage.createEmptyPageData());
-        page.insertTuple(t);
-        writePage(page);
-        return new ArrayList<>();
     }
 
     // see DbFile.java for javadocs
@@ -127,8 +505,18 @@ public class HeapFile implements DbFile {
         RecordId rid = t.getRecordId();
         HeapPageId pid = (HeapPageId) rid.getPageId();
         assert pid.getTableId() == getId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapPage page = (HeapPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            bufferPool.latchPage(pid, Permissions.READ_WRITE);
+            try {
+                page.deleteTuple(t);
+            } finally {
+                bufferPool.unlatchPage(pid, Permissions.READ_WRITE);
+            }
+        } finally {
+            bufferPool.unpinPage(tid, pid);
+        }
         return new ArrayList<>(Collections.singletonList(page));
     }
 
@@ -149,18 +537,76 @@ public class HeapFile implements DbFile {
             it = null;
         }
 
-        private Iterator<Tuple> getTupleIterator(int pgNo)
-            throws TransactionAbortedException, DbException {
+        /** The page the tuples of it come from, pinned while it is read. */
+        private PageId pinned;
+
+        /** The ring pages are read through if the file is large, else null. */
+        private BufferAccessStrategy strategy;
+
+        /** Pages from cur up to this were fetched by the last getPages call. */
+        private int fetchedEnd;
+
+        /**
+         * Reads page pgNo into the pool if it is not cached, together with
+         * the pages after it up to the read-ahead window, with one
+         * BufferPool.getPages call. The pages of one call are not fetched
+         * again; one that is evicted before the scan gets to it is read back
+         * on its own when it is pinned.
+         */
+        private void fetch(int pgNo) throws TransactionAbortedException, DbException {
+            BufferPool bufferPool = Database.getBufferPool();
             HeapPageId pid = new HeapPageId(getId(), pgNo);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            return page.iterator();
+            if (pgNo < fetchedEnd || bufferPool.isCached(pid)) {
+                return;
+            }
+            int n = Math.max(1, Math.min(bufferPool.getReadAhead().getWindow(), end - pgNo));
+            List<PageId> pids = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                pids.add(new HeapPageId(getId(), pgNo + i));
+            }
+            bufferPool.getPages(tid, pids, Permissions.READ_ONLY, strategy);
+            fetchedEnd = pgNo + n;
+        }
+
+        /**
+         * Moves cur to the first page from cur onwards that has tuples, pins
+         * it and iterates over the page the pin returned, so that the tuples
+         * come from the page the pin keeps in the pool. Pages without tuples
+         * are unpinned again right away.
+         */
+        private void advance() throws TransactionAbortedException, DbException {
+            while (cur < end) {
+                fetch(cur);
+                pinned = new HeapPageId(getId(), cur);
+                Page page = Database.getBufferPool().pinPage(tid, pinned, Permissions.READ_ONLY, strategy);
+                it = ((HeapPage) page).iterator();
+                if (it.hasNext()) {
+                    return;
+                }
+                unpinCurrent();
+                cur++;
+            }
+            it = null;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            unpinCurrent();
+            strategy = Database.getBufferPool().getScanStrategy(end);
             cur = 0;
-            while(cur < end && !getTupleIterator(cur).hasNext()) cur++;
-            it = cur < end ? getTupleIterator(cur) : null;
+            fetchedEnd = 0;
+            advance();
+        }
+
+        /**
+         * Unpins the page whose tuples have been read, before moving on, so
+         * that even a pool of two pages has room for the next one.
+         */
+        private void unpinCurrent() {
+            if (pinned != null) {
+                Database.getBufferPool().unpinPage(tid, pinned);
+                pinned = null;
+            }
         }
 
         @Override
@@ -176,9 +622,9 @@ public class HeapFile implements DbFile {
 
             Tuple tuple = it.next();
             if(!it.hasNext()) {
+                unpinCurrent();
                 ++cur;
-                while(cur < end && !getTupleIterator(cur).hasNext()) cur++;
-                it = cur < end ? getTupleIterator(cur) : null;
+                advance();
             }
             return tuple;
         }
@@ -193,6 +639,7 @@ public class HeapFile implements DbFile {
         public void close() {
             cur = end;
             it = null;
+            unpinCurrent();
         }
     }
 }
@@ -2,10 +2,17 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A BufferPool that keeps its pages off the heap caches a view of each
+ * page instead, see {@link #HeapPage(HeapPage, ByteBuffer)}: the page's
+ * bytes live in a frame of the pool's arena, and tuples are decoded from
+ * the frame each time they are reached rather than kept.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,9 +23,30 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
 
+    /**
+     * The tuples materialized from the page data or inserted, by slot. A
+     * view only allocates it once modified, for the tuples inserted.
+     */
+    private volatile Tuple[] tuples;
+
+    /**
+     * The page as read from disk. Never modified; tuples in slots that have
+     * not been touched are materialized from it on demand. Null for a view.
+     */
+    final byte[] data;
+
+    /**
+     * For a view, the page as read from disk, in the pool frame it was
+     * copied to or, once evicted, in a heap copy of that frame, see
+     * {@link #detach}; null otherwise. Never modified either.
+     */
+    private volatile ByteBuffer frame;
+
+    /** True once a tuple has been inserted into or deleted from this page. */
+    private volatile boolean modified;
+
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
 
@@ -39,29 +67,115 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and limit of the
+     * given buffer, e.g. a region of a memory-mapped HeapFile. The page's
+     * bytes are copied, so the buffer may be reused once this returns; its
+     * position is modified.
+     * <p>
+     * Only the header is examined here. Tuples are created when first
+     * reached through {@link #iterator()}, and their fields are decoded on
+     * first access.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        this.data = new byte[BufferPool.getPageSize()];
+        data.get(this.data, 0, Math.min(this.data.length, data.remaining()));
+
+        // copy the header slots of this page; they change as tuples come and go
+        header = Arrays.copyOf(this.data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Creates a view of page, which must be unmodified, over a frame of a
+     * BufferPool's off-heap arena. The page's bytes are copied into the
+     * frame, which must stay reserved for the view until {@link #detach}
+     * is called. The view keeps only its header on the heap.
+     *
+     * @param page the page to copy
+     * @param frame the frame, exactly one page long
+     */
+    HeapPage(HeapPage page, ByteBuffer frame) {
+        this.pid = page.pid;
+        this.td = page.td;
+        this.numSlots = page.numSlots;
+        this.data = null;
+
+        ByteBuffer dst = frame.duplicate();
+        dst.clear();
+        page.writePageData(dst);
+        this.frame = frame;
+        header = page.header.clone();
+        tuples = null;
+        setBeforeImage();
+    }
+
+    /**
+     * Returns true if this page can be copied into a view: it has not been
+     * modified since it was read, nor dirtied.
+     */
+    boolean canBeViewed() {
+        return !modified && dirtier == null;
+    }
+
+    /**
+     * Moves a view's bytes from its frame to the heap, after which the
+     * frame may be reused. Called by the pool when it evicts or replaces
+     * the view; anyone still holding the page can go on using it. Waits
+     * for reads of the frame in progress, which hold this page's monitor.
+     */
+    synchronized void detach() {
+        ByteBuffer f = frame;
+        if (f != null && f.isDirect()) {
+            byte[] copy = new byte[f.capacity()];
+            f.duplicate().get(copy);
+            frame = ByteBuffer.wrap(copy);
+        }
+    }
+
+    /**
+     * Returns a buffer over the page as read from disk, positioned at its
+     * start. For a view, the caller holds this page's monitor for as long
+     * as it reads the buffer, so that {@link #detach} cannot hand the
+     * frame to another page in the meantime.
+     */
+    private ByteBuffer source() {
+        assert data != null || Thread.holdsLock(this);
+        if (data != null) {
+            return ByteBuffer.wrap(data);
+        }
+        ByteBuffer bb = frame.duplicate();
+        bb.clear();
+        return bb;
+    }
+
+    /**
+     * Returns the array of tuples by slot, allocating it if need be.
+     */
+    private Tuple[] tuples() {
+        Tuple[] ts = tuples;
+        if (ts == null) {
+            synchronized (this) {
+                if (tuples == null) {
+                    tuples = new Tuple[numSlots];
+                }
+                ts = tuples;
+            }
+        }
+        return ts;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -86,6 +200,12 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null) {
+                // a view that has not changed since: its frame is the before image
+                synchronized (this) {
+                    return new HeapPage(pid, source());
+                }
+            }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -98,7 +218,9 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // getPageData returns either a fresh array or the immutable original;
+        // an unmodified view keeps its frame instead of a heap copy of it
+        oldData = data == null && !modified ? null : getPageData();
         }
     }
 
@@ -110,39 +232,51 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, materializing it from the
+     * page data if this is the first time it is needed, or null if the slot
+     * is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private Tuple getTuple(int slotId) {
+        Tuple[] ts = tuples;
+        Tuple t = ts == null ? null : ts[slotId];
+        if (t == null && isSlotUsed(slotId)) {
+            if (data == null) {
+                // a view: decode the fields now, and keep nothing
+                return decodeTuple(slotId);
             }
-            return null;
+            t = new Tuple(td, data, getSlotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            ts[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
+    /**
+     * Decodes the tuple in the specified slot of a view's frame.
+     */
+    private synchronized Tuple decodeTuple(int slotId) {
+        ByteBuffer bb = source();
+        bb.position(getSlotOffset(slotId));
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+            for (int i = 0; i < td.numFields(); i++) {
+                t.setField(i, td.getFieldType(i).parse(bb));
             }
-        } catch (java.text.ParseException e) {
+        } catch (ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
-
+        t.setRecordId(new RecordId(pid, slotId));
         return t;
     }
 
+    /**
+     * Returns the offset of the specified slot within the page data.
+     */
+    private int getSlotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -150,69 +284,60 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * A page that has not been modified since it was read returns its
+     * original bytes without re-serializing them; callers must not modify
+     * the returned array.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        if (!modified && data != null) {
+            return data;
+        }
+        byte[] out = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(out));
+        return out;
+    }
 
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    // see Page.java for javadocs
+    public synchronized void writePageData(ByteBuffer bb) {
+        if (!modified) {
+            bb.put(source());
+            return;
         }
 
+        // create the header of the page
+        bb.put(header);
+
         // create the tuples
+        int tupleSize = td.getSize();
+        Tuple[] tuples = tuples();
+        ByteBuffer source = source();
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                Utility.putZeros(bb, tupleSize);
+                continue;
+            }
 
-                }
+            // non-empty slot that was never materialized: copy it verbatim
+            if (tuples[i] == null) {
+                source.limit(getSlotOffset(i) + tupleSize).position(getSlotOffset(i));
+                bb.put(source);
                 continue;
             }
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                tuples[i].getField(j).serialize(bb);
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        Utility.putZeros(bb, BufferPool.getPageSize() - (header.length + tupleSize * tuples.length));
     }
 
     /**
@@ -247,7 +372,9 @@ public class HeapPage implements Page {
         int tupleno = rid.tupleno();
         if(isSlotUsed(tupleno)) {
             markSlotUsed(tupleno, false);
-            tuples[tupleno] = null;
+            tuples()[tupleno] = null;
+            modified = true;
+            updateFreeSpaceMap(true);
         } else {
             throw new DbException("Tuple slot is already empty!");
         }
@@ -268,13 +395,31 @@ public class HeapPage implements Page {
             if(!isSlotUsed(i)) {
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
+                tuples()[i] = t;
+                modified = true;
+                updateFreeSpaceMap(getNumEmptySlots() > 0);
                 return;
             }
         }
         throw new DbException("The page is full (no empty slots)!");
     }
 
+    /**
+     * Tells the free-space map of the HeapFile this page belongs to whether
+     * the page still has room for another tuple.
+     */
+    private void updateFreeSpaceMap(boolean hasFreeSlots) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).getFreeSpaceMap().update(pid.pageNumber(), hasFreeSlots);
+        }
+    }
+
     private TransactionId dirtier;
 
     /**
@@ -359,7 +504,7 @@ public class HeapPage implements Page {
             if(!hasNext()) {
                 throw new NoSuchElementException();
             }
-            Tuple tuple = tuples[cur++];
+            Tuple tuple = getTuple(cur++);
             while (cur < numSlots && !isSlotUsed(cur)) cur++;
             return tuple;
         }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
@@ -13,6 +14,7 @@ public class Insert extends Operator {
     private final TransactionId tid;
     private DbIterator child;
     private int tableId;
+    private final boolean bulk;
     private boolean inserted = false;
     /**
      * Constructor.
@@ -29,10 +31,36 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t,DbIterator child, int tableid)
             throws DbException {
+        this(t, child, tableid, false);
+    }
+
+    /**
+     * Constructor for an insert that may bypass the BufferPool.
+     *
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableid
+     *            The table in which to insert tuples.
+     * @param bulk
+     *            Whether to append the tuples to a HeapFile with
+     *            {@link HeapFile#bulkAppend}, which writes the pages it fills
+     *            straight to disk rather than crowding the pool until
+     *            commit, but leaves free space on existing pages unused and
+     *            gives the tuples no RecordIds. Inserts into other files go
+     *            through the BufferPool either way.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     */
+    public Insert(TransactionId t, DbIterator child, int tableid, boolean bulk)
+            throws DbException {
         // some code goes here
         this.tid = t;
         this.child = child;
         this.tableId = tableid;
+        this.bulk = bulk;
     }
 
     public TupleDesc getTupleDesc() {
@@ -65,6 +93,10 @@ public class Insert extends Operator {
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
      *
+     * <p>
+     * A bulk insert into a HeapFile appends the tuples with
+     * {@link HeapFile#bulkAppend} instead.
+     *
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
@@ -73,14 +105,19 @@ public class Insert extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
         if (!inserted) {
+            BufferPool bufferPool = Database.getBufferPool();
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
             int count = 0;
-            while (child.hasNext()) {
-                try {
-                    Database.getBufferPool().insertTuple(tid, tableId, child.next());
+            try {
+                if (bulk && file instanceof HeapFile) {
+                    count = bulkAppend((HeapFile) file);
+                }
+                while (child.hasNext()) {
+                    bufferPool.insertTuple(tid, tableId, child.next());
                     count += 1;
-                } catch (IOException e) {
-                    throw new DbException("Insert: Error: IOException when Inserting");
                 }
+            } catch (IOException e) {
+                throw new DbException("Insert: Error: IOException when Inserting");
             }
             inserted = true;
             return Utility.getTuple(new int[]{count}, 1);
@@ -88,6 +125,46 @@ public class Insert extends Operator {
         return null;
     }
 
+    /**
+     * Appends the child's tuples to file.
+     */
+    private int bulkAppend(HeapFile file)
+            throws DbException, IOException, TransactionAbortedException {
+        try {
+            return file.bulkAppend(tid, new Iterator<Tuple>() {
+                public boolean hasNext() {
+                    try {
+                        return child.hasNext();
+                    } catch (DbException | TransactionAbortedException e) {
+                        throw new ChildException(e);
+                    }
+                }
+
+                public Tuple next() {
+                    try {
+                        return child.next();
+                    } catch (DbException | TransactionAbortedException e) {
+                        throw new ChildException(e);
+                    }
+                }
+            });
+        } catch (ChildException e) {
+            if (e.getCause() instanceof DbException) {
+                throw (DbException) e.getCause();
+            }
+            throw (TransactionAbortedException) e.getCause();
+        }
+    }
+
+    /** Carries an exception of the child through the iterator bulkAppend reads. */
+    private static class ChildException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChildException(Exception cause) {
+            super(cause);
+        }
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
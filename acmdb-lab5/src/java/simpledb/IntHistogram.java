@@ -46,10 +46,11 @@ public class IntHistogram {
 
     /**
      * Add a value to the set of values that you are keeping a histogram of.
+     * Values outside [min, max] are counted in the nearest end bucket.
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-        histogram[indexOfValue(v)]++;
+        histogram[indexOfValue(Math.max(min, Math.min(max, v)))]++;
         ntups++;
     }
 
@@ -253,6 +253,9 @@ public class JoinOptimizer {
             throws ParsingException {
 
         int numJoinNodes = this.joins.size();
+        if (numJoinNodes == 0) {
+            return this.joins;
+        }
         PlanCache memo = new PlanCache();
         for (int i = 1; i <= numJoinNodes; i ++) {
             Set<Set<LogicalJoinNode>> setOfSubset = this.enumerateSubsets(this.joins, i);
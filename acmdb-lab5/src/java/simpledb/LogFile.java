@@ -257,15 +257,27 @@ public class LogFile {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
+            Class<?> idArgTypes[] = new Class<?>[numIdArgs];
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
+                idArgTypes[i] = int.class;
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            pid = (PageId)idClass.getDeclaredConstructor(idArgTypes).newInstance(idArgs);
+
+            // page classes may have several constructors (e.g. HeapPage also
+            // takes a ByteBuffer); pick the (page id, byte[]) one
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            if (pageConst == null) {
+                throw new NoSuchMethodException(pageClassName + "(" + idClassName + ", byte[])");
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +287,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -290,6 +302,9 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         }
         return newPage;
 
@@ -328,6 +343,7 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
+                Database.getBufferPool().dumpPages(residentPagesFile());
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -357,6 +373,16 @@ public class LogFile {
         logTruncate();
     }
 
+    /**
+     * Returns the file the ids of the pages in the buffer pool are written
+     * to at each checkpoint, and read from by {@link #recover} and at
+     * startup by {@link Parser} to warm the pool up again: the log file's
+     * name with ".pages" appended.
+     */
+    File residentPagesFile() {
+        return new File(logFile.getPath() + ".pages");
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
@@ -494,10 +520,89 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                // transactions with a COMMIT or ABORT record
+                Set<Long> completed = new HashSet<Long>();
+                List<Long> updateTids = new ArrayList<Long>();
+                List<Page> befores = new ArrayList<Page>();
+
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                raf.seek(LONG_SIZE);
+                long end = raf.getFilePointer();
+                // repeat history: redo every update in log order, and at an
+                // ABORT record put back the transaction's before-images, as
+                // the abort did
+                while (true) {
+                    try {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            Page before = readPageData(raf);
+                            Page after = readPageData(raf);
+                            installPage(after);
+                            updateTids.add(record_tid);
+                            befores.add(before);
+                            break;
+                        case COMMIT_RECORD:
+                            completed.add(record_tid);
+                            break;
+                        case ABORT_RECORD:
+                            completed.add(record_tid);
+                            for (int i = befores.size() - 1; i >= 0; i--) {
+                                if (updateTids.get(i) == record_tid) {
+                                    installPage(befores.get(i));
+                                }
+                            }
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                            break;
+                        }
+                        raf.readLong();
+                        end = raf.getFilePointer();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+
+                // then undo the transactions the crash cut short, newest
+                // first; with NO STEAL there is rarely anything to undo
+                for (int i = befores.size() - 1; i >= 0; i--) {
+                    if (!completed.contains(updateTids.get(i))) {
+                        installPage(befores.get(i));
+                    }
+                }
+
+                // drop a record torn by the crash
+                raf.setLength(end);
+                raf.seek(end);
+                currentOffset = end;
+                tidToFirstLogRecord.clear();
+
+                // reload the pages cached at the last checkpoint, now that
+                // they hold what recovery installed
+                try {
+                    Database.getBufferPool().warmUp(residentPagesFile());
+                } catch (IOException e) {
+                    System.out.println("ERROR WARMING UP BUFFER POOL -- IGNORING.");
+                    e.printStackTrace();
+                }
             }
          }
     }
 
+    /** Write a page image from the log to its file, replacing any cached
+        copy of the page */
+    private void installPage(Page page) throws IOException {
+        PageId pid = page.getId();
+        Database.getBufferPool().discardPage(pid);
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
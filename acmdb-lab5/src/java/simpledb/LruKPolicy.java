@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LruKPolicy implements LRU-K: it evicts the page whose K-th most recent
+ * request lies furthest in the past. Pages requested fewer than K times
+ * since they entered the pool are evicted first, oldest last request first,
+ * which makes the policy scan resistant: the pages of a large sequential
+ * scan are each requested once and make way for each other instead of for
+ * the pages that are requested over and over, such as B+ tree internal
+ * pages and small dimension tables.
+ * <p>
+ * With K = 2 this is LRU-2, whose queue of once-requested pages also plays
+ * the role of the A1 queue of 2Q. The request history of a page is forgotten
+ * when it leaves the pool. Victims are kept in a sorted set, so every
+ * operation takes logarithmic time.
+ *
+ * @Threadsafe
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    private final int k;
+
+    /** Logical clock, advanced on every request. */
+    private long now;
+
+    /** Orders pages by eviction priority; see {@link Entry#compareTo}. */
+    private final TreeSet<Entry> queue = new TreeSet<>();
+    private final HashMap<PageId, Entry> entries = new HashMap<>();
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param k the number of past requests that decide a page's priority;
+     *          1 is plain LRU
+     */
+    public LruKPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1, not " + k);
+        }
+        this.k = k;
+    }
+
+    private class Entry implements Comparable<Entry> {
+        final PageId pid;
+        /** Times of the last k requests, most recent first; 0 if none. */
+        final long[] history = new long[k];
+        /** When the page entered the pool; also breaks ties. */
+        final long added;
+
+        Entry(PageId pid, long added) {
+            this.pid = pid;
+            this.added = added;
+        }
+
+        /** The last request, or the time the page was added if later. */
+        long lastTouched() {
+            return Math.max(history[0], added);
+        }
+
+        /**
+         * Pages with fewer than k requests come first, by when they were
+         * last touched, so that a page read ahead is not evicted before
+         * older pages; the rest follow by their k-th most recent request.
+         */
+        @Override
+        public int compareTo(Entry o) {
+            int c = Long.compare(history[k - 1], o.history[k - 1]);
+            if (c == 0) {
+                c = Long.compare(lastTouched(), o.lastTouched());
+            }
+            return c != 0 ? c : Long.compare(added, o.added);
+        }
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (!entries.containsKey(pid)) {
+            Entry e = new Entry(pid, ++now);
+            entries.put(pid, e);
+            queue.add(e);
+        }
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e == null) {
+            return;
+        }
+        queue.remove(e);
+        System.arraycopy(e.history, 0, e.history, 1, k - 1);
+        e.history[0] = ++now;
+        queue.add(e);
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e != null) {
+            queue.remove(e);
+        }
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        for (Entry e : queue) {
+            if (evictable.test(e.pid)) {
+                return e.pid;
+            }
+        }
+        return null;
+    }
+}
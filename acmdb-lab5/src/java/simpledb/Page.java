@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -46,6 +48,18 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Writes the bytes {@link #getPageData()} would return into bb, starting
+     * at its position, and advances the position past them. Unlike
+     * getPageData this need not allocate, so DbFiles use it with a reused
+     * buffer when writing pages out; by default it copies getPageData().
+     *
+     * @param bb the buffer to write to; must have room for the whole page
+     */
+    public default void writePageData(ByteBuffer bb) {
+        bb.put(getPageData());
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
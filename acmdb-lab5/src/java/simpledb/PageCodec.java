@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PageCodec is a small LZ77 compressor in the style of LZ4, used by
+ * CompressedHeapFile to shrink pages on disk. It favours speed over ratio;
+ * heap pages compress well anyway because empty slots and padded strings are
+ * long runs of zeros, which become single overlapping matches.
+ * <p>
+ * The compressed form is a sequence of (literals, match) pairs. Each pair
+ * starts with a token byte whose high nibble is the number of literals and
+ * whose low nibble is the match length minus {@link #MIN_MATCH}; a nibble of
+ * 15 is followed by extra length bytes, each added to it, ending with the
+ * first byte below 255. The literals follow the token, then a little-endian
+ * 16-bit match offset, then the match length bytes. The last pair has no
+ * match and ends at the end of the input.
+ */
+public class PageCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 12;
+
+    private PageCodec() {
+    }
+
+    /**
+     * Returns the largest number of bytes compressing len bytes can produce.
+     */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Compresses src[0..len) into dst.
+     *
+     * @param dst the output buffer; must hold at least
+     *            {@link #maxCompressedLength(int) maxCompressedLength(len)}
+     *            bytes
+     * @return the number of bytes written to dst
+     */
+    public static int compress(byte[] src, int len, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int op = 0;
+        int i = 0;
+
+        while (i + MIN_MATCH <= len) {
+            int seq = readInt(src, i);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+
+            int matchLen = MIN_MATCH;
+            while (i + matchLen < len && src[ref + matchLen] == src[i + matchLen]) {
+                matchLen++;
+            }
+            op = writeSequence(src, anchor, i - anchor, dst, op, i - ref, matchLen);
+            i += matchLen;
+            anchor = i;
+        }
+        return writeSequence(src, anchor, len - anchor, dst, op, 0, 0);
+    }
+
+    /**
+     * Writes one (literals, match) pair; a matchLen of 0 writes the final,
+     * literal-only pair.
+     */
+    private static int writeSequence(byte[] src, int litStart, int litLen,
+                                     byte[] dst, int op, int offset, int matchLen) {
+        int token = op++;
+        int matchCode = matchLen == 0 ? 0 : matchLen - MIN_MATCH;
+        dst[token] = (byte) ((Math.min(litLen, 15) << 4) | Math.min(matchCode, 15));
+        op = writeLength(dst, op, litLen);
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+        if (matchLen == 0) {
+            return op;
+        }
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        return writeLength(dst, op, matchCode);
+    }
+
+    private static int writeLength(byte[] dst, int op, int len) {
+        if (len < 15) {
+            return op;
+        }
+        len -= 15;
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    /**
+     * Decompresses src[off..off+len) into dst, stopping once dst is full.
+     * Decompressing into an array shorter than the original data therefore
+     * yields just its prefix, which is cheaper than decompressing all of it.
+     *
+     * @return the number of bytes written to dst
+     * @throws IOException if the input is not valid compressed data
+     */
+    public static int decompress(byte[] src, int off, int len, byte[] dst) throws IOException {
+        int ip = off;
+        int end = off + len;
+        int op = 0;
+        try {
+            while (ip < end && op < dst.length) {
+                int token = src[ip++] & 0xff;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                if (ip + litLen > end) {
+                    throw new IOException("corrupt compressed page: literals overrun input");
+                }
+                int n = Math.min(litLen, dst.length - op);
+                System.arraycopy(src, ip, dst, op, n);
+                ip += litLen;
+                op += n;
+                if (ip >= end || op >= dst.length) {
+                    break;
+                }
+
+                int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int matchLen = token & 0xf;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                if (offset == 0 || offset > op) {
+                    throw new IOException("corrupt compressed page: bad match offset " + offset);
+                }
+                // byte by byte, since a match may overlap the bytes it produces
+                int matchEnd = Math.min(op + matchLen, dst.length);
+                for (int ref = op - offset; op < matchEnd; ) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed page: truncated input");
+        }
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+    }
+}
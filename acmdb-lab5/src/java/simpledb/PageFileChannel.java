@@ -0,0 +1,435 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * PageFileChannel is the page I/O layer shared by the DbFile implementations.
+ * It keeps a single FileChannel open on the backing file and reads and writes
+ * pages with positional I/O, so no seek state is shared between threads and
+ * no file handle is opened per page.
+ * <p>
+ * The channel is opened lazily on first use and released by {@link #close()};
+ * a closed PageFileChannel transparently reopens the file if it is used again.
+ * Only writes create the file: reading a file that does not exist reads an
+ * empty file. Asynchronous reads, see {@link #readAsync}, go through a
+ * second, AsynchronousFileChannel, opened and closed the same way.
+ * <p>
+ * A FileChannel is closed for every thread using it when one of them is
+ * interrupted during an operation. Reads and writes that find the channel
+ * closed under them, by that or by {@link #close()}, reopen it and try
+ * again, unless it is their own thread that was interrupted.
+ *
+ * @Threadsafe
+ */
+public class PageFileChannel implements Closeable {
+
+    private final File f;
+    private volatile FileChannel channel;
+    private volatile AsynchronousFileChannel asyncChannel;
+
+    /** Per-thread read buffer, reused across readPage calls. */
+    private final ThreadLocal<byte[]> readBuffer = new ThreadLocal<>();
+
+    /** Per-thread write buffer, reused across writePage calls. */
+    private final ThreadLocal<ByteBuffer> writeBuffer = new ThreadLocal<>();
+
+    /**
+     * Upper bound on the size of a single mapping; a MappedByteBuffer cannot
+     * exceed 2GB, so larger files are mapped as several segments.
+     */
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    /** Read-only mappings of the file, one per segment; see {@link #mapPage}. */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile int segmentPageSize;
+
+    /**
+     * Creates a page channel over the specified file. The file is not opened
+     * until the first read or write.
+     *
+     * @param f the file backing the DbFile
+     */
+    public PageFileChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * Returns the file this channel reads and writes.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /** The options the file is opened with, creating it if create is true. */
+    private static OpenOption[] openOptions(boolean create) {
+        return create
+                ? new OpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE}
+                : new OpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE};
+    }
+
+    /**
+     * Returns the open channel, opening the file if necessary.
+     *
+     * @param create whether to create the file if it does not exist
+     * @return the channel, or null if the file does not exist and create is
+     *         false
+     */
+    private FileChannel getChannel(boolean create) throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    try {
+                        ch = FileChannel.open(f.toPath(), openOptions(create));
+                    } catch (NoSuchFileException e) {
+                        return null;
+                    }
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Returns the open asynchronous channel, opening the file if necessary,
+     * or null if the file does not exist.
+     */
+    private AsynchronousFileChannel getAsyncChannel() throws IOException {
+        AsynchronousFileChannel ch = asyncChannel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = asyncChannel;
+                if (ch == null || !ch.isOpen()) {
+                    try {
+                        ch = AsynchronousFileChannel.open(f.toPath(), openOptions(false));
+                    } catch (NoSuchFileException e) {
+                        return null;
+                    }
+                    asyncChannel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Rethrows e, which a read or write got because the channel was closed
+     * under it, if the calling thread was the one interrupted; otherwise
+     * returns, so that the caller retries on a reopened channel.
+     */
+    private static void retryAfter(ClosedChannelException e) throws ClosedChannelException {
+        if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a buffer of exactly len bytes owned by the calling thread. The
+     * contents are overwritten by the next call from the same thread, so the
+     * caller must be done with it (e.g. have parsed it into a Page) before
+     * reading again.
+     *
+     * @param len the required buffer length
+     */
+    public byte[] getReadBuffer(int len) {
+        byte[] buf = readBuffer.get();
+        if (buf == null || buf.length != len) {
+            buf = new byte[len];
+            readBuffer.set(buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Returns a cleared buffer with a backing array of exactly len bytes,
+     * owned by the calling thread, for serializing a page into before
+     * writing it. As with {@link #getReadBuffer}, the next call from the same
+     * thread reuses it.
+     *
+     * @param len the required buffer length
+     */
+    public ByteBuffer getWriteBuffer(int len) {
+        ByteBuffer buf = writeBuffer.get();
+        if (buf == null || buf.capacity() != len) {
+            buf = ByteBuffer.allocate(len);
+            writeBuffer.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Reads dst.length bytes starting at the given file offset into dst.
+     * If the file ends before dst is filled, the rest of dst is zeroed.
+     *
+     * @param position the file offset of the first byte to read
+     * @param dst the destination array
+     * @return the number of bytes actually read from the file, or -1 if
+     *         position is at or past the end of the file
+     * @throws IOException if the read fails
+     */
+    public int read(long position, byte[] dst) throws IOException {
+        return read(position, dst, 0, dst.length);
+    }
+
+    /**
+     * Reads len bytes starting at the given file offset into dst[off..off+len).
+     *
+     * @see #read(long, byte[])
+     */
+    public int read(long position, byte[] dst, int off, int len) throws IOException {
+        int total;
+        while (true) {
+            try {
+                FileChannel ch = getChannel(false);
+                total = ch == null ? -1 : readFully(ch, position, ByteBuffer.wrap(dst, off, len));
+                break;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+            }
+        }
+        if (total < len) {
+            Arrays.fill(dst, off + Math.max(total, 0), off + len, (byte) 0);
+        }
+        return total;
+    }
+
+    /**
+     * Starts reading dst.length bytes starting at the given file offset into
+     * dst, and returns at once. Several reads may be outstanding at a time,
+     * which lets devices with deep queues serve them in parallel. As with
+     * {@link #read(long, byte[])}, the part of dst past the end of the file
+     * is zeroed. dst must not be touched until the read completes.
+     *
+     * @param position the file offset of the first byte to read
+     * @param dst the destination array
+     * @return a future of the number of bytes actually read from the file,
+     *         or -1 if position is at or past the end of the file; it
+     *         completes on one of the channel's threads, exceptionally with
+     *         an IOException if the read fails
+     */
+    public CompletableFuture<Integer> readAsync(long position, byte[] dst) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        try {
+            AsynchronousFileChannel ch = getAsyncChannel();
+            if (ch == null) {
+                Arrays.fill(dst, (byte) 0);
+                result.complete(-1);
+            } else {
+                new AsyncRead(ch, position, dst, result).next();
+            }
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /** An asynchronous read, issued again for what is left after a short read. */
+    private class AsyncRead implements CompletionHandler<Integer, Void> {
+        private AsynchronousFileChannel ch;
+        private final long position;
+        private final byte[] dst;
+        private final ByteBuffer bb;
+        private final CompletableFuture<Integer> result;
+        private int total;
+        private boolean reopened;
+
+        AsyncRead(AsynchronousFileChannel ch, long position, byte[] dst, CompletableFuture<Integer> result) {
+            this.ch = ch;
+            this.position = position;
+            this.dst = dst;
+            this.bb = ByteBuffer.wrap(dst);
+            this.result = result;
+        }
+
+        void next() {
+            ch.read(bb, position + total, null, this);
+        }
+
+        @Override
+        public void completed(Integer n, Void attachment) {
+            if (n > 0) {
+                total += n;
+                if (bb.hasRemaining()) {
+                    next();
+                    return;
+                }
+            }
+            if (total < dst.length) {
+                Arrays.fill(dst, total, dst.length, (byte) 0);
+            }
+            result.complete(total == 0 && n < 0 ? -1 : total);
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            if (e instanceof ClosedChannelException && !reopened) {
+                // closed underneath us (e.g. by Catalog.clear()); reopen once
+                reopened = true;
+                try {
+                    ch = getAsyncChannel();
+                    if (ch == null) {
+                        result.completeExceptionally(e);
+                        return;
+                    }
+                    next();
+                } catch (IOException reopen) {
+                    result.completeExceptionally(reopen);
+                }
+                return;
+            }
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static int readFully(FileChannel ch, long position, ByteBuffer bb) throws IOException {
+        int total = 0;
+        while (bb.hasRemaining()) {
+            int n = ch.read(bb, position + total);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Writes all of data to the file starting at the given offset, growing
+     * the file if necessary.
+     *
+     * @param position the file offset of the first byte to write
+     * @param data the bytes to write
+     * @throws IOException if the write fails
+     */
+    public void write(long position, byte[] data) throws IOException {
+        write(position, data, 0, data.length);
+    }
+
+    /**
+     * Writes data[off..off+len) to the file starting at the given offset.
+     *
+     * @see #write(long, byte[])
+     */
+    public void write(long position, byte[] data, int off, int len) throws IOException {
+        while (true) {
+            try {
+                writeFully(getChannel(true), position, ByteBuffer.wrap(data, off, len));
+                return;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, long position, ByteBuffer bb) throws IOException {
+        long pos = position;
+        while (bb.hasRemaining()) {
+            pos += ch.write(bb, pos);
+        }
+    }
+
+    /**
+     * Returns a read-only view of page pageNo of the file, assuming pages of
+     * pageSize bytes starting at offset 0, backed by a memory mapping of the
+     * file. No bytes are copied; the returned buffer has position 0 and
+     * limit pageSize. The mapping grows on demand when pages are appended to
+     * the file.
+     *
+     * @param pageNo the page number
+     * @param pageSize the size of each page in bytes
+     * @return the page's bytes, or null if the page lies beyond the end of
+     *         the file
+     * @throws IOException if the file cannot be mapped
+     */
+    public ByteBuffer mapPage(int pageNo, int pageSize) throws IOException {
+        int pagesPerSegment = MAX_SEGMENT_SIZE / pageSize;
+        int seg = pageNo / pagesPerSegment;
+        int off = (pageNo % pagesPerSegment) * pageSize;
+
+        MappedByteBuffer[] segs = segments;
+        if (segmentPageSize != pageSize || seg >= segs.length
+                || segs[seg] == null || segs[seg].capacity() < off + pageSize) {
+            segs = remap(seg, pageSize);
+            if (segs[seg] == null || segs[seg].capacity() < off + pageSize) {
+                return null;
+            }
+        }
+        ByteBuffer view = segs[seg].duplicate();
+        view.position(off).limit(off + pageSize);
+        return view.slice();
+    }
+
+    /**
+     * (Re)maps segment seg so that it covers as much of the file as exists,
+     * and returns the new segment table.
+     */
+    private synchronized MappedByteBuffer[] remap(int seg, int pageSize) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (segmentPageSize != pageSize) {
+            segs = new MappedByteBuffer[0];
+            segmentPageSize = pageSize;
+        }
+        segs = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+        long segmentBytes = (long) (MAX_SEGMENT_SIZE / pageSize) * pageSize;
+        long start = seg * segmentBytes;
+        long len = Math.min(segmentBytes, size() - start);
+        if (len > 0 && (segs[seg] == null || segs[seg].capacity() < len)) {
+            segs[seg] = getChannel(false).map(FileChannel.MapMode.READ_ONLY, start, len);
+        }
+        segments = segs;
+        return segs;
+    }
+
+    /**
+     * Returns the current size of the file in bytes, without opening it.
+     */
+    public long size() {
+        return f.length();
+    }
+
+    /**
+     * Forces any writes made through this channel to the storage device.
+     */
+    public void force() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            ch.force(false);
+        }
+    }
+
+    /**
+     * Closes the underlying file channels, if open. Subsequent reads or
+     * writes reopen the file.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel ch = channel;
+        AsynchronousFileChannel async = asyncChannel;
+        channel = null;
+        asyncChannel = null;
+        segments = new MappedByteBuffer[0];
+        try {
+            if (ch != null) {
+                ch.close();
+            }
+        } finally {
+            if (async != null) {
+                async.close();
+            }
+        }
+    }
+}
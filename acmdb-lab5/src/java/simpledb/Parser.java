@@ -492,7 +492,51 @@ public class Parser {
         return curtrans;
     }
 
+    /** How long resizing the buffer pool waits for dirty pages, in ms. */
+    static final long RESIZE_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Handles the statements that are commands rather than SQL:
+     * <code>bufferpool;</code> prints the size of the buffer pool and
+     * <code>bufferpool n;</code> resizes it to n pages, keeping the pages it
+     * holds, see {@link BufferPool#resize}.
+     *
+     * @param cmd the statement, ending with ';'
+     * @return true if the statement was a command
+     */
+    public boolean handleCommand(String cmd) {
+        String[] words = cmd.substring(0, cmd.length() - 1).trim().split("\\s+");
+        if (!words[0].equalsIgnoreCase("bufferpool") || words.length > 2) {
+            return false;
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        if (words.length == 2) {
+            int pages;
+            try {
+                pages = Integer.parseInt(words[1]);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid number of pages: " + words[1]);
+                return true;
+            }
+            try {
+                if (!bufferPool.resize(pages, RESIZE_TIMEOUT_MILLIS)) {
+                    System.out.println("Pages still dirty or pinned will be evicted as the pool fills.");
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("Buffer pool: " + bufferPool.getNumPages() + " pages");
+        return true;
+    }
+
     public void processNextStatement(String s) {
+        if (s.trim().endsWith(";") && handleCommand(s.trim())) {
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -581,7 +625,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "bufferpool" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -598,16 +642,38 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 5000;
 
+    /**
+     * Shuts the log down, which checkpoints it and writes the ids of the
+     * pages in the buffer pool next to it for the next {@link #open}.
+     */
     protected void shutdown() {
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
+    /**
+     * Loads the tables of the given catalog file, turns on read-ahead for
+     * the scans queries run, starts loading the pages that were in the
+     * buffer pool at the last shutdown or checkpoint in the background, and
+     * computes the tables' statistics.
+     */
+    protected void open(String catalogFile) throws IOException {
+        Database.getCatalog().loadSchema(catalogFile);
+        Database.getBufferPool().getReadAhead().setWindow(BufferPool.READ_AHEAD_PAGES);
+        try {
+            Database.getBufferPool().warmUp(Database.getLogFile().residentPagesFile());
+        } catch (IOException e) {
+            System.out.println("ERROR WARMING UP BUFFER POOL -- IGNORING.");
+            e.printStackTrace();
+        }
+        TableStats.computeStatistics();
+    }
+
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
         // first add tables to database
-        Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        open(argv[0]);
 
         String queryFile = null;
 
@@ -683,8 +749,10 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    if (!handleCommand(cmd)) {
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
+                    }
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
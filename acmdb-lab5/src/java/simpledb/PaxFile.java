@@ -0,0 +1,240 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is an implementation of a DbFile that stores a collection of
+ * tuples in no particular order on PaxPages, which store each column of the
+ * page contiguously. It holds the same number of tuples per page as a
+ * HeapFile, but a scan that asks for a subset of the columns through
+ * {@link #iterator(TransactionId, Set)} only decodes those columns, which
+ * suits analytic queries over wide tables. Pages are identified by
+ * HeapPageIds.
+ *
+ * @see simpledb.PaxPage#PaxPage
+ * @see HeapFile
+ */
+public class PaxFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final PageFileChannel channel;
+    private final FreeSpaceMap freeSpaceMap;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            PAX file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.channel = new PageFileChannel(f);
+        // PaxPages share the HeapPage header, which the map reads by default
+        this.freeSpaceMap = new FreeSpaceMap(channel, td);
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PaxFile, the hash code of the
+     * absolute path of its backing file.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the map of pages in this PaxFile that have empty slots.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    // see DbFile.java for javadocs
+    public Page pageFromData(PageId pid, byte[] data) {
+        try {
+            return new PaxPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = channel.getReadBuffer(pageSize);
+        PaxPage page = null;
+
+        try {
+            channel.read((long) pid.pageNumber() * pageSize, data);
+            page = new PaxPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        channel.write((long) page.getId().pageNumber() * pageSize, page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int pgNo = -1;
+        while (true) {
+            Integer next = freeSpaceMap.nextFreePage(pgNo, numPages());
+            pgNo = next != null ? next : appendEmptyPage();
+
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            PaxPage page = (PaxPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE);
+            try {
+                if (page.getNumEmptySlots() > 0) {
+                    bufferPool.latchPage(pid, Permissions.READ_WRITE);
+                    try {
+                        page.insertTuple(t);
+                    } finally {
+                        bufferPool.unlatchPage(pid, Permissions.READ_WRITE);
+                    }
+                    return new ArrayList<>(Collections.singletonList(page));
+                }
+            } finally {
+                bufferPool.unpinPage(tid, pid);
+            }
+
+            // the free-space map was stale; don't keep a lock on a page we didn't use
+            freeSpaceMap.update(pgNo, false);
+            if (!held) {
+                bufferPool.releasePage(tid, pid);
+            }
+        }
+    }
+
+    /**
+     * Writes an empty page at the end of the file and returns its number.
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        channel.write((long) pgNo * BufferPool.getPageSize(), PaxPage.createEmptyPageData());
+        freeSpaceMap.update(pgNo, true);
+        return pgNo;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        PageId pid = t.getRecordId().getPageId();
+        assert pid.getTableId() == getId();
+        BufferPool bufferPool = Database.getBufferPool();
+        PaxPage page = (PaxPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            bufferPool.latchPage(pid, Permissions.READ_WRITE);
+            try {
+                page.deleteTuple(t);
+            } finally {
+                bufferPool.unlatchPage(pid, Permissions.READ_WRITE);
+            }
+        } finally {
+            bufferPool.unpinPage(tid, pid);
+        }
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PaxFileIterator(tid, null);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Set<Integer> columns) {
+        return new PaxFileIterator(tid, columns);
+    }
+
+    private class PaxFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Set<Integer> columns;
+        private int cur;
+        private Iterator<Tuple> it;
+
+        public PaxFileIterator(TransactionId tid, Set<Integer> columns) {
+            this.tid = tid;
+            this.columns = columns;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            cur = 0;
+            it = null;
+            if (numPages() > 0) {
+                it = getTupleIterator(cur);
+            }
+        }
+
+        private Iterator<Tuple> getTupleIterator(int pgNo)
+                throws TransactionAbortedException, DbException {
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            return page.iterator(columns);
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (it == null) {
+                return null;
+            }
+            while (!it.hasNext()) {
+                if (++cur >= numPages()) {
+                    it = null;
+                    return null;
+                }
+                it = getTupleIterator(cur);
+            }
+            return it.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            it = null;
+        }
+    }
+}
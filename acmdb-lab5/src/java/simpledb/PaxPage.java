@@ -0,0 +1,374 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxFile and
+ * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A PaxPage holds as many tuples as a HeapPage of the same schema, but
+ * instead of storing each tuple's fields together it stores each column
+ * contiguously (Partition Attributes Across). A scan that only needs some of
+ * the columns, see {@link #iterator(Set)}, decodes just those and never
+ * touches the bytes of the others.
+ *
+ * @see PaxFile
+ * @see BufferPool
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] header;
+    final Tuple[] tuples;
+    final int numSlots;
+
+    /** Offset within the page of the first value of each column. */
+    private final int[] columnOffsets;
+
+    /**
+     * The page as read from disk. Never modified; tuples are decoded from it
+     * until the page is first modified.
+     */
+    final byte[] data;
+
+    /**
+     * True once a tuple has been inserted into or deleted from this page; at
+     * that point every tuple has been materialized into tuples.
+     */
+    private volatile boolean modified;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * The format of a PaxPage is the same header as a {@link HeapPage}, with
+     * the same number of slots, followed by one region per column. The
+     * region of column i holds the values of column i for every slot in slot
+     * order, each {@link Type#getLen()} bytes long; values in empty slots are
+     * zero.
+     *
+     * @see HeapPage#HeapPage
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getNumSlots(td);
+        this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+
+        header = Arrays.copyOf(this.data, getHeaderSize(td));
+        tuples = new Tuple[numSlots];
+        columnOffsets = new int[td.numFields()];
+        int offset = header.length;
+        for (int i = 0; i < td.numFields(); i++) {
+            columnOffsets[i] = offset;
+            offset += numSlots * td.getFieldType(i).getLen();
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of tuple slots on a page of the given schema.
+     */
+    static int getNumSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private static int getHeaderSize(TupleDesc td) {
+        return (getNumSlots(td) + 7) / 8;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            // getPageData returns either a fresh array or the immutable original
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Decodes the value of column col in slot slotId from the page data.
+     */
+    private Field decodeField(ByteBuffer bb, int slotId, int col) {
+        Type type = td.getFieldType(col);
+        bb.position(columnOffsets[col] + slotId * type.getLen());
+        try {
+            return type.parse(bb);
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Returns the tuple in the specified slot with every field set,
+     * materializing it from the page data if this is the first time it is
+     * needed, or null if the slot is empty.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null && isSlotUsed(slotId)) {
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            t = new Tuple(td);
+            for (int col = 0; col < td.numFields(); col++) {
+                t.setField(col, decodeField(bb, slotId, col));
+            }
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Materializes every tuple before the first modification, so that
+     * getPageData can serialize the page from tuples alone.
+     */
+    private void materializeAll() {
+        if (!modified) {
+            for (int i = 0; i < numSlots; i++) {
+                getTuple(i);
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * A page that has not been modified since it was read returns its
+     * original bytes without re-serializing them; callers must not modify
+     * the returned array.
+     *
+     * @see #PaxPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        if (!modified) {
+            return data;
+        }
+
+        byte[] out = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, out, 0, header.length);
+        ByteBuffer bb = ByteBuffer.wrap(out);
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples[i];
+            if (t == null) {
+                continue;
+            }
+            for (int col = 0; col < td.numFields(); col++) {
+                bb.position(columnOffsets[col] + i * td.getFieldType(col).getLen());
+                t.getField(col).serialize(bb);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage. Used to add new, empty pages to the file.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        assert t != null;
+        RecordId rid = t.getRecordId();
+
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("This tuple is not on this page!");
+        }
+
+        int slot = rid.tupleno();
+        if (isSlotUsed(slot)) {
+            materializeAll();
+            markSlotUsed(slot, false);
+            tuples[slot] = null;
+            modified = true;
+            updateFreeSpaceMap(true);
+        } else {
+            throw new DbException("Tuple slot is already empty!");
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        assert t != null;
+        if (!td.equals(t.getTupleDesc())) throw new DbException("Tupledesc is mismatch!");
+
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                materializeAll();
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                modified = true;
+                updateFreeSpaceMap(getNumEmptySlots() > 0);
+                return;
+            }
+        }
+        throw new DbException("The page is full (no empty slots)!");
+    }
+
+    /**
+     * Tells the free-space map of the PaxFile this page belongs to whether
+     * the page still has room for another tuple.
+     */
+    private void updateFreeSpaceMap(boolean hasFreeSlots) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof PaxFile) {
+            ((PaxFile) file).getFreeSpaceMap().update(pid.pageNumber(), hasFreeSlots);
+        }
+    }
+
+    private TransactionId dirtier;
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            dirtier = tid;
+        } else {
+            dirtier = null;
+        }
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int numEmptySlots = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                numEmptySlots++;
+            }
+        }
+        return numEmptySlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (0x1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Abstraction to fill or clear a slot on this page.
+     */
+    private void markSlotUsed(int i, boolean value) {
+        byte mask = (byte) (0x1 << (i % 8));
+        if (value) {
+            header[i / 8] |= mask;
+        } else {
+            header[i / 8] &= ~mask;
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that only guarantees
+     * the given columns are set. On a page that has not been modified, every
+     * other field of the returned tuples is null and is never decoded; a
+     * modified page returns its complete tuples.
+     *
+     * @param columns the indexes of the fields the caller will read, or null
+     *                for all of them
+     */
+    public Iterator<Tuple> iterator(Set<Integer> columns) {
+        ArrayList<Tuple> result = new ArrayList<>();
+        if (columns == null || modified) {
+            for (int i = 0; i < numSlots; i++) {
+                Tuple t = getTuple(i);
+                if (t != null) {
+                    result.add(t);
+                }
+            }
+        } else {
+            int[] slots = new int[numSlots];
+            int n = 0;
+            for (int i = 0; i < numSlots; i++) {
+                if (isSlotUsed(i)) {
+                    Tuple t = new Tuple(td);
+                    t.setRecordId(new RecordId(pid, i));
+                    result.add(t);
+                    slots[n++] = i;
+                }
+            }
+            // decode a column at a time, reading each column region sequentially
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            for (int col : columns) {
+                for (int j = 0; j < n; j++) {
+                    result.get(j).setField(col, decodeField(bb, slots[j], col));
+                }
+            }
+        }
+        return Collections.unmodifiableList(result).iterator();
+    }
+}
@@ -0,0 +1,320 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead loads pages into a BufferPool on a background I/O thread before
+ * they are asked for, so that scans do not stall on every page miss. It is
+ * off until it is given a window, see {@link #setWindow} and
+ * {@link BufferPool#READ_AHEAD_PAGES}.
+ * <p>
+ * It learns what to load in two ways. {@link #access} watches the pages
+ * BufferPool.getPage hands out: once a table's pages are being read in page
+ * number order, the next {@link #getWindow()} pages of the table are loaded
+ * ahead of the reader. Access methods whose next page is not the next page
+ * number, such as a B+ tree leaf scan, name it through {@link #prefetch}
+ * instead. Detection only applies to tables whose pages are identified by
+ * HeapPageIds.
+ * <p>
+ * Read-ahead is a pure cache fill: pages are read without locks and are only
+ * added to the pool if no transaction has written or discarded them in the
+ * meantime, see {@link #cancel}. A reader that asks for a page while it is
+ * on its way waits for it, see {@link #await}, rather than reading it a
+ * second time.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    /** The I/O thread shared by the read-ahead of every BufferPool. */
+    private static final ExecutorService ioThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "simpledb-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The most pages {@link #warm} reads with one DbFile.readPages call. */
+    static final int WARM_BATCH_PAGES = 64;
+
+    private final BufferPool bufferPool;
+    private volatile int window;
+    private volatile boolean closed;
+
+    /** Per table: the last page number accessed and the last one scheduled. */
+    private final ConcurrentHashMap<Integer, int[]> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Pages scheduled for loading that have not been loaded or cancelled,
+     * each with a latch released once its batch has been loaded.
+     */
+    private final ConcurrentHashMap<PageId, CountDownLatch> inflight = new ConcurrentHashMap<>();
+
+    /** Pages loaded ahead that no one has asked for yet. */
+    private final Set<PageId> unused = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loaded = new AtomicLong();
+
+    /**
+     * Creates the read-ahead component of a BufferPool.
+     *
+     * @param bufferPool the pool pages are loaded into
+     * @param window the number of pages to read ahead of a sequential reader;
+     *               0 disables read-ahead
+     */
+    ReadAhead(BufferPool bufferPool, int window) {
+        this.bufferPool = bufferPool;
+        setWindow(window);
+    }
+
+    /**
+     * Returns the number of pages read ahead of a sequential reader.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the number of pages read ahead of a sequential reader; 0 disables
+     * read-ahead, including {@link #prefetch}.
+     */
+    public void setWindow(int window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("negative read-ahead window " + window);
+        }
+        this.window = window;
+        streams.clear();
+    }
+
+    /**
+     * Stops loading pages for good, because the pool is being replaced:
+     * nothing more is scheduled, and batches still queued on the shared I/O
+     * thread load nothing.
+     */
+    void close() {
+        closed = true;
+        inflight.clear();
+        streams.clear();
+    }
+
+    /**
+     * Returns the number of page requests served by a page that was loaded
+     * ahead.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of page requests that had to read the page from
+     * disk while the caller waited.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of pages loaded ahead, used or not.
+     */
+    public long getLoaded() {
+        return loaded.get();
+    }
+
+    /**
+     * Resets the hit, miss and loaded counters to zero.
+     */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        loaded.set(0);
+    }
+
+    /**
+     * Records that a page was handed out by BufferPool.getPage, and starts
+     * loading the pages after it if its table is being read sequentially.
+     *
+     * @param pid the page
+     * @param cached whether the page was already in the pool
+     */
+    void access(PageId pid, boolean cached) {
+        if (cached) {
+            if (unused.remove(pid)) {
+                hits.incrementAndGet();
+            }
+        } else {
+            misses.incrementAndGet();
+        }
+
+        int window = this.window;
+        if (window == 0 || !(pid instanceof HeapPageId)) {
+            return;
+        }
+        int pgNo = pid.pageNumber();
+        int[] stream = streams.computeIfAbsent(pid.getTableId(), k -> new int[] {-2, -1});
+        int from;
+        int to;
+        synchronized (stream) {
+            boolean sequential = pgNo == stream[0] + 1;
+            if (pgNo != stream[0]) {
+                stream[0] = pgNo;
+            }
+            if (!sequential || stream[1] >= pgNo + window) {
+                return;
+            }
+            from = Math.max(stream[1], pgNo) + 1;
+            to = pgNo + window;
+            stream[1] = to;
+        }
+
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        int numPages = file.numPages();
+        List<PageId> pids = new ArrayList<>();
+        for (int p = from; p <= to && p < numPages; p++) {
+            pids.add(new HeapPageId(pid.getTableId(), p));
+        }
+        schedule(pids);
+    }
+
+    /**
+     * Starts loading the given page into the pool in the background, unless
+     * read-ahead is disabled or the page is already cached or on its way.
+     *
+     * @param pid the page to load
+     */
+    public void prefetch(PageId pid) {
+        if (window > 0 && pid != null) {
+            schedule(Collections.singletonList(pid));
+        }
+    }
+
+    /**
+     * Starts loading the given pages into the pool in the background,
+     * whatever the window, sorted by table and page number so that each
+     * table is read front to back in batches of at most
+     * {@link #WARM_BATCH_PAGES} pages. Used to warm the pool up after a
+     * restart, see {@link BufferPool#warmUp}.
+     *
+     * @param pids the pages to load
+     */
+    void warm(List<PageId> pids) {
+        List<PageId> sorted = new ArrayList<>(pids);
+        sorted.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::pageNumber));
+        List<PageId> batch = new ArrayList<>();
+        for (PageId pid : sorted) {
+            if (!batch.isEmpty() && (batch.size() == WARM_BATCH_PAGES
+                    || batch.get(0).getTableId() != pid.getTableId())) {
+                schedule(batch);
+                batch = new ArrayList<>();
+            }
+            batch.add(pid);
+        }
+        if (!batch.isEmpty()) {
+            schedule(batch);
+        }
+    }
+
+    /**
+     * Starts loading the pages, all of one table, that are neither cached
+     * nor on their way already, with one call to DbFile.readPages.
+     */
+    private void schedule(List<PageId> pids) {
+        if (closed) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        List<PageId> batch = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            if (!bufferPool.isCached(pid) && inflight.putIfAbsent(pid, done) == null) {
+                batch.add(pid);
+            }
+        }
+        if (!batch.isEmpty()) {
+            ioThread.execute(() -> {
+                try {
+                    load(batch, done);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+    }
+
+    private void load(List<PageId> pids, CountDownLatch done) {
+        List<PageId> wanted = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            if (inflight.get(pid) == done) {
+                wanted.add(pid);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+        List<Page> pages;
+        try {
+            pages = Database.getCatalog().getDatabaseFile(wanted.get(0).getTableId()).readPages(wanted);
+        } catch (RuntimeException e) {
+            // the table was dropped or the pages are gone; nothing to load
+            for (PageId pid : wanted) {
+                inflight.remove(pid, done);
+            }
+            return;
+        }
+        for (Page page : pages) {
+            if (page != null && bufferPool.addLoadedAhead(page, done)) {
+                unused.add(page.getId());
+                loaded.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Waits until the page is in the pool if it is on its way, so that a
+     * reader that catches up with the read-ahead does not read the page a
+     * second time.
+     */
+    void await(PageId pid) {
+        CountDownLatch done = inflight.get(pid);
+        if (done != null) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Claims a page scheduled with the given batch for insertion into the
+     * pool. Returns false if the page was cancelled since it was scheduled,
+     * in which case the copy read from disk may be stale and must be
+     * dropped.
+     */
+    boolean claim(PageId pid, CountDownLatch batch) {
+        return inflight.remove(pid, batch);
+    }
+
+    /**
+     * Cancels loading a page because a transaction is loading, writing or
+     * discarding it, and forgets that it was loaded ahead.
+     */
+    void cancel(PageId pid) {
+        inflight.remove(pid);
+        unused.remove(pid);
+    }
+}
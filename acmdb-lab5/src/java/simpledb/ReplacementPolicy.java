@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * A ReplacementPolicy decides which page a BufferPool evicts when it is full.
+ * The BufferPool tells it about every page that enters or leaves the pool
+ * and about every request for a cached page, and asks it for a victim among
+ * the pages that can be evicted (at present, the clean ones).
+ * <p>
+ * A policy instance belongs to a single shard of a BufferPool; the pool
+ * creates one per shard when it is created, see
+ * {@link Database#resetBufferPool(int, java.util.function.Supplier)}.
+ * Implementations must be thread-safe; BufferPool tells them about added and
+ * removed pages with the shard lock held, but about requests without it.
+ *
+ * @see ClockPolicy
+ * @see LruKPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called after a page is added to the pool. Adding a page does not count
+     * as a request for it; a page read for a caller is also reported through
+     * {@link #pageAccessed}, while a page read ahead is not.
+     *
+     * @param pid the page added
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called every time a caller is handed a page that is in the pool.
+     *
+     * @param pid the page requested
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called after a page leaves the pool, whether it was evicted or
+     * discarded.
+     *
+     * @param pid the page removed
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page to evict next. The page stays tracked until
+     * {@link #pageRemoved} is called for it.
+     *
+     * @param evictable tells whether a page may be evicted
+     * @return the page to evict, or null if no tracked page is evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
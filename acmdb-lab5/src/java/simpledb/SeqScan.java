@@ -34,11 +34,25 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table whose consumers
+     * read only some of its fields. The remaining fields of the returned
+     * tuples may be null; see {@link DbFile#iterator(TransactionId, Set)}.
+     *
+     * @param columns
+     *            the indexes of the fields that are read, or null for all
+     *            of them
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Set<Integer> columns) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        dbIterator = dbFile.iterator(tid);
+        dbIterator = dbFile.iterator(tid, columns);
     }
 
     /**
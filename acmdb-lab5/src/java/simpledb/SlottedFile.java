@@ -0,0 +1,282 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedFile is an implementation of a DbFile that stores a collection of
+ * tuples in no particular order on SlottedPages, which hold variable-length
+ * records. It is a drop-in alternative to HeapFile for tables dominated by
+ * short strings, which HeapFile always pads to {@link Type#STRING_LEN}
+ * bytes. Pages are identified by HeapPageIds.
+ *
+ * @see simpledb.SlottedPage#SlottedPage
+ * @see HeapFile
+ */
+public class SlottedFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final PageFileChannel channel;
+    private final FreeSpaceMap freeSpaceMap;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            slotted file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.channel = new PageFileChannel(f);
+        this.freeSpaceMap = new FreeSpaceMap(channel, td) {
+            @Override
+            protected int getHeaderSize() {
+                return SlottedPage.HEADER_SIZE;
+            }
+
+            @Override
+            protected boolean hasFreeSpace(byte[] header) {
+                return ByteBuffer.wrap(header).getInt(4) >= SlottedPage.getMaxRecordSize(this.td);
+            }
+        };
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedFile, the hash code of
+     * the absolute path of its backing file.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the map of pages in this SlottedFile that have room for a
+     * tuple of the largest possible size.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    // see DbFile.java for javadocs
+    public Page pageFromData(PageId pid, byte[] data) {
+        try {
+            return new SlottedPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = channel.getReadBuffer(pageSize);
+        SlottedPage page = null;
+
+        try {
+            channel.read((long) pid.pageNumber() * pageSize, data);
+            page = new SlottedPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        channel.write((long) page.getId().pageNumber() * pageSize, page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int pgNo = -1;
+        while (true) {
+            Integer next = freeSpaceMap.nextFreePage(pgNo, numPages());
+            pgNo = next != null ? next : appendEmptyPage();
+
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            SlottedPage page = (SlottedPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE);
+            try {
+                if (page.hasRoomFor(t)) {
+                    bufferPool.latchPage(pid, Permissions.READ_WRITE);
+                    try {
+                        page.insertTuple(t);
+                    } finally {
+                        bufferPool.unlatchPage(pid, Permissions.READ_WRITE);
+                    }
+                    return new ArrayList<>(Collections.singletonList(page));
+                }
+            } finally {
+                bufferPool.unpinPage(tid, pid);
+            }
+
+            // the free-space map was stale; don't keep a lock on a page we didn't use
+            freeSpaceMap.update(pgNo, false);
+            if (!held) {
+                bufferPool.releasePage(tid, pid);
+            }
+        }
+    }
+
+    /**
+     * Writes an empty page at the end of the file and returns its number.
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        channel.write((long) pgNo * BufferPool.getPageSize(), SlottedPage.createEmptyPageData());
+        freeSpaceMap.update(pgNo, true);
+        return pgNo;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        PageId pid = t.getRecordId().getPageId();
+        assert pid.getTableId() == getId();
+        BufferPool bufferPool = Database.getBufferPool();
+        SlottedPage page = (SlottedPage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            bufferPool.latchPage(pid, Permissions.READ_WRITE);
+            try {
+                page.deleteTuple(t);
+            } finally {
+                bufferPool.unlatchPage(pid, Permissions.READ_WRITE);
+            }
+        } finally {
+            bufferPool.unpinPage(tid, pid);
+        }
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(tid);
+    }
+
+    /**
+     * Copies every tuple of source into a new SlottedFile stored in target,
+     * packing pages as full as they go. Both files are read and written
+     * directly, without going through the BufferPool; source must be in the
+     * Catalog and must not be modified while the conversion runs. The new
+     * file is not added to the Catalog.
+     *
+     * @param source the HeapFile to convert
+     * @param target the file to write; it is overwritten
+     * @return a SlottedFile over target
+     */
+    public static SlottedFile convert(HeapFile source, File target) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int usable = pageSize - SlottedPage.HEADER_SIZE;
+        ArrayList<Tuple> pageTuples = new ArrayList<>();
+        int used = 0;
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+            for (int pgNo = 0; pgNo < source.numPages(); pgNo++) {
+                HeapPage page = (HeapPage) source.readPage(new HeapPageId(source.getId(), pgNo));
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    int size = SlottedPage.getRecordSize(t) + SlottedPage.SLOT_SIZE;
+                    if (used + size > usable) {
+                        out.write(SlottedPage.createPageData(pageTuples));
+                        pageTuples.clear();
+                        used = 0;
+                    }
+                    pageTuples.add(t);
+                    used += size;
+                }
+            }
+            if (!pageTuples.isEmpty()) {
+                out.write(SlottedPage.createPageData(pageTuples));
+            }
+        }
+        return new SlottedFile(target, source.getTupleDesc());
+    }
+
+    private class SlottedFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private int cur;
+        private Iterator<Tuple> it;
+
+        public SlottedFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            cur = 0;
+            it = null;
+            if (numPages() > 0) {
+                it = getTupleIterator(cur);
+            }
+        }
+
+        private Iterator<Tuple> getTupleIterator(int pgNo)
+                throws TransactionAbortedException, DbException {
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            return page.iterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (it == null) {
+                return null;
+            }
+            while (!it.hasNext()) {
+                if (++cur >= numPages()) {
+                    it = null;
+                    return null;
+                }
+                it = getTupleIterator(cur);
+            }
+            return it.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            it = null;
+        }
+    }
+}
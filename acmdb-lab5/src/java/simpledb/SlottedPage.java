@@ -0,0 +1,373 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedFile and
+ * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Unlike a HeapPage, whose slots are all {@link TupleDesc#getSize()} bytes,
+ * a SlottedPage stores variable-length records, so strings take only as
+ * many bytes as they have characters. This makes string-heavy tables several
+ * times smaller on disk than the equivalent HeapFile.
+ *
+ * @see SlottedFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes taken by the slot count and free byte count at the page start. */
+    static final int HEADER_SIZE = 8;
+
+    /** Bytes per slot directory entry: unsigned 16-bit offset and length. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+
+    /** The tuple in each slot; null for a free slot. Never ends in a free slot. */
+    final ArrayList<Tuple> tuples;
+
+    /** Total length of the records of all tuples on this page. */
+    private int recordBytes;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     * The format of a SlottedPage is:
+     * <ul>
+     * <li>an int holding the number of slots n;</li>
+     * <li>an int holding the number of free bytes on the page;</li>
+     * <li>a slot directory of n entries, each an unsigned short record
+     *     offset followed by an unsigned short record length, where an
+     *     offset of 0 marks a free slot;</li>
+     * <li>free space;</li>
+     * <li>the records themselves, packed against the end of the page.</li>
+     * </ul>
+     * A record holds the tuple's fields in order. An int is 4 bytes; a
+     * string is an unsigned length byte followed by that many bytes.
+     *
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tuples = new ArrayList<>();
+
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        int numSlots = bb.getInt(0);
+        for (int i = 0; i < numSlots; i++) {
+            int offset = bb.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+            int length = bb.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+            if (offset == 0) {
+                tuples.add(null);
+                continue;
+            }
+            bb.position(offset);
+            Tuple t = readRecord(td, bb);
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+            recordBytes += length;
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * Reads one record from the current position of bb.
+     */
+    private static Tuple readRecord(TupleDesc td, ByteBuffer bb) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(bb.getInt()));
+            } else {
+                byte[] bs = new byte[bb.get() & 0xff];
+                bb.get(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Writes the record for t at the current position of bb.
+     */
+    private static void writeRecord(Tuple t, ByteBuffer bb) {
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+            Field f = t.getField(j);
+            if (f.getType() == Type.INT_TYPE) {
+                bb.putInt(((IntField) f).getValue());
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                bb.put((byte) len);
+                for (int k = 0; k < len; k++) {
+                    bb.put((byte) s.charAt(k));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes the record for t takes on a page.
+     */
+    static int getRecordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+            Field f = t.getField(j);
+            if (f.getType() == Type.INT_TYPE) {
+                size += Type.INT_TYPE.getLen();
+            } else {
+                size += 1 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the largest possible record of the given
+     * TupleDesc takes on a page, including its slot directory entry.
+     */
+    static int getMaxRecordSize(TupleDesc td) {
+        int size = SLOT_SIZE;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : 1 + Type.STRING_LEN;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of slots (used or free) a page with the given
+     * tuples needs; trailing free slots are dropped.
+     */
+    private static int getNumSlots(List<Tuple> tuples) {
+        int n = tuples.size();
+        while (n > 0 && tuples.get(n - 1) == null) {
+            n--;
+        }
+        return n;
+    }
+
+    /**
+     * Serializes the given slots into a page, packing the records against
+     * the end of the page. A null entry is written as a free slot.
+     *
+     * @throws IllegalArgumentException if the tuples do not fit on a page
+     */
+    static byte[] createPageData(List<Tuple> tuples) {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+
+        int numSlots = getNumSlots(tuples);
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples.get(i);
+            int dirEntry = HEADER_SIZE + i * SLOT_SIZE;
+            if (t == null) {
+                bb.putShort(dirEntry, (short) 0);
+                bb.putShort(dirEntry + 2, (short) 0);
+                continue;
+            }
+            int len = getRecordSize(t);
+            end -= len;
+            if (end < HEADER_SIZE + numSlots * SLOT_SIZE) {
+                throw new IllegalArgumentException("tuples do not fit on a page");
+            }
+            bb.putShort(dirEntry, (short) end);
+            bb.putShort(dirEntry + 2, (short) len);
+            bb.position(end);
+            writeRecord(t, bb);
+        }
+        bb.putInt(0, numSlots);
+        bb.putInt(4, end - (HEADER_SIZE + numSlots * SLOT_SIZE));
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage. Used to add new, empty pages to the file.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return createPageData(Collections.<Tuple>emptyList());
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk. Free space left by deleted
+     * tuples is compacted away.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return createPageData(tuples);
+    }
+
+    /**
+     * Returns the number of bytes still free on this page.
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - tuples.size() * SLOT_SIZE - recordBytes;
+    }
+
+    /**
+     * Returns true if t could be inserted into this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int needed = getRecordSize(t);
+        if (tuples.indexOf(null) < 0) {
+            needed += SLOT_SIZE;
+        }
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        assert t != null;
+        RecordId rid = t.getRecordId();
+
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("This tuple is not on this page!");
+        }
+
+        int slot = rid.tupleno();
+        if (slot < tuples.size() && tuples.get(slot) != null) {
+            recordBytes -= getRecordSize(tuples.get(slot));
+            tuples.set(slot, null);
+            // drop trailing free slots, as getPageData would
+            while (!tuples.isEmpty() && tuples.get(tuples.size() - 1) == null) {
+                tuples.remove(tuples.size() - 1);
+            }
+            updateFreeSpaceMap();
+        } else {
+            throw new DbException("Tuple slot is already empty!");
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        assert t != null;
+        if (!td.equals(t.getTupleDesc())) throw new DbException("Tupledesc is mismatch!");
+        if (!hasRoomFor(t)) throw new DbException("The page is full (not enough free space)!");
+
+        int slot = tuples.indexOf(null);
+        if (slot < 0) {
+            slot = tuples.size();
+            tuples.add(null);
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
+        recordBytes += getRecordSize(t);
+        updateFreeSpaceMap();
+    }
+
+    /**
+     * Tells the free-space map of the SlottedFile this page belongs to
+     * whether the page still has room for a tuple of the largest size.
+     */
+    private void updateFreeSpaceMap() {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof SlottedFile) {
+            ((SlottedFile) file).getFreeSpaceMap().update(pid.pageNumber(),
+                    getFreeSpace() >= getMaxRecordSize(td));
+        }
+    }
+
+    private TransactionId dirtier;
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            dirtier = tid;
+        } else {
+            dirtier = null;
+        }
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * Returns the number of tuples stored on this page.
+     */
+    public int getNumTuples() {
+        return tuples.size() - Collections.frequency(tuples, null);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> live = new ArrayList<>(tuples.size());
+        for (Tuple t : tuples) {
+            if (t != null) {
+                live.add(t);
+            }
+        }
+        return Collections.unmodifiableList(live).iterator();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,21 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to bb in the format of
+	 * {@link #serialize(DataOutputStream)}.
+	 * 
+	 * @param bb
+	 *            Where the string is written
+	 */
+	public void serialize(ByteBuffer bb) {
+		int len = Math.min(value.length(), maxSize);
+		bb.putInt(len);
+		for (int i = 0; i < len; i++)
+			bb.put((byte) value.charAt(i));
+		Utility.putZeros(bb, maxSize - len);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * StripedHeapFile is a HeapFile whose pages are spread over several files,
+ * the stripes, usually in directories on different disks: page N is page
+ * N / k of stripe N mod k, where k is the number of stripes. Consecutive
+ * pages are on different stripes, so a scan reads from all the disks in
+ * turn, and asynchronous reads, see {@link BufferPool#getPageAsync}, keep
+ * them busy at once.
+ * <p>
+ * The first stripe is the file of the HeapFile, see {@link #getFile}, and
+ * gives the table its id. Pages are in ordinary HeapPage format; the
+ * stripes cannot be memory mapped.
+ *
+ * @see Tablespace
+ */
+public class StripedHeapFile extends HeapFile {
+
+    private final File[] stripes;
+    private final PageFileChannel[] channels;
+
+    /**
+     * Constructs a heap file striped across the specified files. Missing
+     * files are created on the first write.
+     *
+     * @param stripes the files that store the pages, at least one
+     */
+    public StripedHeapFile(File[] stripes, TupleDesc td) {
+        super(stripes[0], td, false);
+        this.stripes = stripes.clone();
+        this.channels = new PageFileChannel[stripes.length];
+        channels[0] = getChannel();
+        for (int i = 1; i < stripes.length; i++) {
+            channels[i] = new PageFileChannel(stripes[i]);
+        }
+    }
+
+    /**
+     * Returns the files that store the pages, in stripe order.
+     */
+    public File[] getStripes() {
+        return stripes.clone();
+    }
+
+    private long offset(int pgNo) {
+        return (long) (pgNo / stripes.length) * BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns the number of pages in this file, the pages of all stripes.
+     */
+    @Override
+    public int numPages() {
+        int pageSize = BufferPool.getPageSize();
+        int pages = 0;
+        for (PageFileChannel channel : channels) {
+            pages += (int) (channel.size() / pageSize);
+        }
+        return pages;
+    }
+
+    @Override
+    protected void readPageData(int pgNo, byte[] dst) throws IOException {
+        channels[pgNo % stripes.length].read(offset(pgNo), dst);
+    }
+
+    @Override
+    protected CompletableFuture<Void> readPageDataAsync(int pgNo, byte[] dst) {
+        return channels[pgNo % stripes.length].readAsync(offset(pgNo), dst).thenApply(read -> null);
+    }
+
+    /**
+     * Reads the pages of each stripe in the run with one read, and copies
+     * them to their places in dst.
+     */
+    @Override
+    protected void readPagesData(int firstPgNo, byte[] dst, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < Math.min(count, stripes.length); i++) {
+            int n = (count - i + stripes.length - 1) / stripes.length;
+            byte[] run = new byte[n * pageSize];
+            channels[(firstPgNo + i) % stripes.length].read(offset(firstPgNo + i), run);
+            for (int j = 0; j < n; j++) {
+                System.arraycopy(run, j * pageSize, dst, (i + j * stripes.length) * pageSize, pageSize);
+            }
+        }
+    }
+
+    @Override
+    protected void writePageData(int pgNo, byte[] data) throws IOException {
+        channels[pgNo % stripes.length].write(offset(pgNo), data);
+    }
+
+    /**
+     * Gathers the pages of each stripe in the run and writes them with one
+     * write.
+     */
+    @Override
+    protected void writePagesData(int firstPgNo, byte[] data, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < Math.min(count, stripes.length); i++) {
+            int n = (count - i + stripes.length - 1) / stripes.length;
+            byte[] run = new byte[n * pageSize];
+            for (int j = 0; j < n; j++) {
+                System.arraycopy(data, (i + j * stripes.length) * pageSize, run, j * pageSize, pageSize);
+            }
+            channels[(firstPgNo + i) % stripes.length].write(offset(firstPgNo + i), run);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (PageFileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The share of a BufferPool one table uses: the number of its pages in the
+ * pool and how often requests for them found them there. Used to tune the
+ * quotas and priority classes set in the {@link Catalog}.
+ *
+ * @see BufferPool#getTableUsage
+ * @Threadsafe
+ */
+public class TableBufferUsage {
+    private final AtomicInteger pages = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the number of the table's pages in the pool.
+     */
+    public int getPages() {
+        return pages.get();
+    }
+
+    /**
+     * Returns the number of requests for a page of the table that found it
+     * in the pool.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests for a page of the table that had to
+     * read it, or wait for someone else's read of it.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the fraction of requests that found their page in the pool,
+     * or 0 if there were none.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Resets the hit and miss counters to zero.
+     */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    void pageAdded() {
+        pages.incrementAndGet();
+    }
+
+    void pageRemoved() {
+        pages.decrementAndGet();
+    }
+
+    void accessed(boolean hit) {
+        (hit ? hits : misses).incrementAndGet();
+    }
+
+    public String toString() {
+        return String.format("%d pages, %d hits, %d misses", getPages(), getHits(), getMisses());
+    }
+}
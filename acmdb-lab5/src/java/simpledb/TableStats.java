@@ -63,7 +63,7 @@ public class TableStats {
 
     private HashMap<String, Integer[]> attrs;//Key是该表的每一列的FieldName，Value是最小值和最大值的数组
     private HashMap<String, Object> name2hist;
-    private HeapFile table;
+    private DbFile table;
     private int ntups;
     private int ioCostPerPage;
     private TupleDesc td;
@@ -86,7 +86,7 @@ public class TableStats {
         // in a single scan of the table.
         // some code goes here
         this.ioCostPerPage = ioCostPerPage;
-        table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        table = Database.getCatalog().getDatabaseFile(tableid);
         td = table.getTupleDesc();
         attrs = new HashMap<>();
         name2hist = new HashMap<>();
@@ -167,6 +167,34 @@ public class TableStats {
         }
     }
 
+    /**
+     * Adds a tuple appended to the table after these statistics were
+     * computed, e.g. by {@link HeapFile#bulkAppend}, without rescanning the
+     * table. Int values outside the range seen when the statistics were
+     * computed are counted in the nearest end bucket of their histogram.
+     *
+     * @param tuple the appended tuple
+     */
+    synchronized void addTuple(Tuple tuple) {
+        ntups++;
+        for (int i = 0; i < td.numFields(); i++) {
+            String fieldName = td.getFieldName(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                IntHistogram intHistogram = (IntHistogram) name2hist.get(fieldName);
+                if (intHistogram != null) {//表为空时没有int类型的histogram
+                    intHistogram.addValue(((IntField) tuple.getField(i)).getValue());
+                }
+            } else {
+                String value = ((StringField) tuple.getField(i)).getValue();
+                StringHistogram stringHistogram = (StringHistogram) name2hist.get(fieldName);
+                if (stringHistogram == null) {
+                    stringHistogram = new StringHistogram(NUM_HIST_BINS);
+                    name2hist.put(fieldName, stringHistogram);
+                }
+                stringHistogram.addValue(value);
+            }
+        }
+    }
 
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
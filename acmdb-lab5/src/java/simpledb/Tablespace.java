@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A tablespace is a named set of data directories that tables are placed
+ * in, see {@link Catalog#loadSchema}. A table in a tablespace of one
+ * directory is stored in that directory instead of next to the catalog
+ * file; a table in a tablespace of several directories, typically on
+ * different disks, is striped across them, see {@link StripedHeapFile}.
+ */
+public class Tablespace {
+    private final String name;
+    private final List<File> directories;
+
+    /**
+     * Creates a tablespace.
+     *
+     * @param name the tablespace's name
+     * @param directories the directories tables are stored in, at least one
+     */
+    public Tablespace(String name, File... directories) {
+        if (directories.length == 0) {
+            throw new IllegalArgumentException("tablespace " + name + " has no directories");
+        }
+        this.name = name;
+        this.directories = Collections.unmodifiableList(Arrays.asList(directories.clone()));
+    }
+
+    /**
+     * Returns the tablespace's name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the directories tables are stored in.
+     */
+    public List<File> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * Returns true if tables are striped across several directories.
+     */
+    public boolean isStriped() {
+        return directories.size() > 1;
+    }
+
+    /**
+     * Returns the files that store the given file name, one per directory.
+     */
+    public File[] files(String fileName) {
+        File[] files = new File[directories.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(directories.get(i), fileName);
+        }
+        return files;
+    }
+
+    public String toString() {
+        return name + " " + directories;
+    }
+}
@@ -53,7 +53,7 @@ public class Transaction {
             }
 
             try {
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+                Database.getBufferPool().transactionComplete(tid, !abort, true); // release locks
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -1,8 +1,13 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
@@ -17,6 +22,12 @@ public class Tuple implements Serializable {
     private Field[] fvalues;
     private RecordId rid;
 
+    /**
+     * Serialized form of this tuple that unset fields are decoded from on
+     * first access, or null if all fields are set explicitly.
+     */
+    private byte[] source;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -29,6 +40,25 @@ public class Tuple implements Serializable {
         fvalues = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded lazily, on first
+     * {@link #getField}, from the serialized tuple starting at
+     * data[offset]. Used by HeapPage so that rows a query never looks at
+     * are never parsed. The tuple keeps a copy of its own bytes only, so
+     * it does not keep the rest of data alive.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param data
+     *            the bytes holding the serialized tuple
+     * @param offset
+     *            the offset of the tuple's first field in data
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.source = Arrays.copyOfRange(data, offset, offset + td.getSize());
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -73,7 +103,48 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return fvalues[i];
+        Field f = fvalues[i];
+        if (f == null && source != null) {
+            f = decodeField(i);
+        }
+        return f;
+    }
+
+    /**
+     * Decodes field i from source. Tuples of a cached page are shared by
+     * the transactions reading it, so decoding is done under the tuple's
+     * lock; fields are immutable, so getField may read a decoded one
+     * without it.
+     */
+    private synchronized Field decodeField(int i) {
+        Field f = fvalues[i];
+        if (f != null || source == null) {
+            return f;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(source);
+        bb.position(td.getFieldOffset(i));
+        try {
+            f = td.getFieldType(i).parse(bb);
+            fvalues[i] = f;
+            return f;
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Decodes any remaining fields so the tuple no longer depends on the
+     * serialized data it was created from.
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        if (source != null) {
+            for (int i = 0; i < fvalues.length; i++) {
+                getField(i);
+            }
+            source = null;
+        }
+        out.defaultWriteObject();
     }
 
     /**
@@ -108,7 +179,7 @@ public class Tuple implements Serializable {
 
         @Override
         public Field next() {
-            return fvalues[cur++];
+            return getField(cur++);
         }
     }
     /**
@@ -118,5 +189,6 @@ public class Tuple implements Serializable {
     {
         this.td = td;
         fvalues = new Field[td.numFields()];
+        source = null;
     }
 }
@@ -165,6 +165,23 @@ public class TupleDesc implements Serializable {
         return totSize;
     }
 
+    /**
+     * @return The offset (in bytes) of the ith field within a serialized
+     *         tuple of this TupleDesc.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if(i < 0 || i >= tupleDesc.length) {
+            throw new NoSuchElementException();
+        }
+        int offset = 0;
+        for(int j = 0; j < i; j++) {
+            offset += tupleDesc[j].fieldType.getLen();
+        }
+        return offset;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -1,11 +1,26 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.UUID;
 
 /** Helper methods used for testing and implementing random features. */
 public class Utility {
+    private static final byte[] ZEROS = new byte[1024];
+
+    /**
+     * Writes n zero bytes into bb at its position, advancing the position
+     * past them.
+     */
+    public static void putZeros(ByteBuffer bb, int n) {
+        while (n > 0) {
+            int len = Math.min(n, ZEROS.length);
+            bb.put(ZEROS, 0, len);
+            n -= len;
+        }
+    }
+
     /**
      * @return a Type array of length len populated with Type.INT_TYPE
      */
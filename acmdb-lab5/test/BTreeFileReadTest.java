@@ -83,6 +83,31 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Unit test for BTreeFile.readPages()
+	 */
+	@Test
+	public void readPages() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createRandomBTreeFile(2, 520,
+				null, null, 0);
+		BTreePageId rootPtrPid = new BTreePageId(twoLeafPageFile.getId(), 0, BTreePageId.ROOT_PTR);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) twoLeafPageFile.readPage(rootPtrPid);
+		BTreeInternalPage root = (BTreeInternalPage) twoLeafPageFile.readPage(rootPtr.getRootId());
+		BTreeEntry entry = root.iterator().next();
+
+		List<PageId> pids = new ArrayList<PageId>();
+		pids.add(rootPtrPid);
+		pids.add(entry.getLeftChild());
+		pids.add(entry.getRightChild());
+		pids.add(root.getId());
+		List<Page> pages = twoLeafPageFile.readPages(pids);
+		assertEquals(4, pages.size());
+		for (int i = 0; i < pids.size(); i++) {
+			assertEquals(pids.get(i), pages.get(i).getId());
+			assertArrayEquals(twoLeafPageFile.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+		}
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
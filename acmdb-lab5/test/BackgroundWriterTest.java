@@ -0,0 +1,317 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BackgroundWriterTest extends BufferPoolTestBase {
+    private static final int MAGIC = 0x5eed;
+    private static final int OTHER = 0xbad;
+
+    private BackgroundWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        setUp(createHeapFile(4), new BufferPool(BufferPool.DEFAULT_PAGES));
+        writer = bp.getBackgroundWriter();
+        // nothing is written in the background until a test lowers this
+        writer.setDirtyThreshold(1);
+        writer.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.setEnabled(false);
+    }
+
+    /** Inserts a tuple of value v in a transaction and commits or aborts it. */
+    private PageId insert(int v, boolean commit) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Tuple tuple = Utility.getHeapTuple(v, 2);
+        bp.insertTuple(t.getId(), hf.getId(), tuple);
+        if (commit) {
+            t.commit();
+        } else {
+            t.abort();
+        }
+        return tuple.getRecordId().getPageId();
+    }
+
+    private static boolean contains(Page page, int v) {
+        Iterator<Tuple> it = ((HeapPage) page).iterator();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void awaitWritten(BackgroundWriter writer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getPendingPages() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * A commit leaves its pages to the writer, which writes them once they
+     * exceed the threshold.
+     */
+    @Test
+    public void commitDefersWrites() throws Exception {
+        PageId pid = insert(MAGIC, true);
+        assertEquals(1, writer.getPendingPages());
+        assertFalse(contains(hf.readPage(pid), MAGIC));
+        assertNull(bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY).isDirty());
+
+        writer.setDirtyThreshold(0);
+        awaitWritten(writer);
+        assertEquals(0, writer.getPendingPages());
+        assertTrue(contains(hf.readPage(pid), MAGIC));
+        assertEquals(1, writer.getPagesWritten());
+        assertEquals(0, writer.getSynchronousWrites());
+    }
+
+    /**
+     * Evicting a committed page the writer has not gotten to writes it.
+     */
+    @Test
+    public void evictionWritesCommittedPages() throws Exception {
+        // under LRU-2 the twice-requested page would outlive the scan
+        bp = Database.resetBufferPool(2, ClockPolicy::new);
+        writer.setEnabled(false);
+        writer = bp.getBackgroundWriter();
+        writer.setDirtyThreshold(1);
+        writer.setEnabled(true);
+
+        PageId pid = insert(MAGIC, true);
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < pid.pageNumber(); pgNo++) {
+            bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        assertFalse(bp.isCached(pid));
+        assertTrue(contains(hf.readPage(pid), MAGIC));
+        assertEquals(1, writer.getSynchronousWrites());
+    }
+
+    /**
+     * Aborting a transaction restores the last committed version of its
+     * pages, which the disk may not have yet.
+     */
+    @Test
+    public void abortRestoresCommittedVersion() throws Exception {
+        PageId pid = insert(MAGIC, true);
+        assertEquals(pid, insert(OTHER, false));
+
+        Page cached = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertTrue(contains(cached, MAGIC));
+        assertFalse(contains(cached, OTHER));
+
+        writer.setEnabled(false);
+        assertTrue(contains(hf.readPage(pid), MAGIC));
+        assertFalse(contains(hf.readPage(pid), OTHER));
+    }
+
+    /**
+     * Recovery redoes the logged writes of committed transactions that
+     * never reached the disk.
+     */
+    @Test
+    public void recoveryRedoesCommittedWrites() throws Exception {
+        PageId pid = insert(MAGIC, true);
+        File f = hf.getFile();
+        TupleDesc td = hf.getTupleDesc();
+
+        // crash: the pool and its unwritten pages are lost
+        Database.reset();
+        HeapFile reopened = new HeapFile(f, td);
+        Database.getCatalog().addTable(reopened, "reopened");
+        assertFalse(contains(reopened.readPage(pid), MAGIC));
+
+        Database.getLogFile().recover();
+        assertTrue(contains(reopened.readPage(pid), MAGIC));
+    }
+
+    /**
+     * Pages of dropped tables are forgotten rather than holding up the
+     * pages after them.
+     */
+    @Test
+    public void droppedTablesAreForgotten() throws Exception {
+        HeapFile other = createHeapFile(1);
+        // drop the table whose page comes first in file order
+        HeapFile dropped = hf.getId() < other.getId() ? hf : other;
+        HeapFile kept = dropped == hf ? other : hf;
+        for (HeapFile file : new HeapFile[] {dropped, kept}) {
+            TransactionId tid = new TransactionId();
+            bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(MAGIC, 2));
+            bp.transactionComplete(tid);
+        }
+        assertEquals(2, writer.getPendingPages());
+
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(kept, "kept");
+        writer.setDirtyThreshold(0);
+        awaitWritten(writer);
+        assertEquals(0, writer.getPendingPages());
+        assertEquals(1, writer.getPagesWritten());
+        assertNull(writer.getFailure());
+        assertTrue(writer.isEnabled());
+    }
+
+    /**
+     * A failed write is reported and disables the writer instead of being
+     * retried every round.
+     */
+    @Test
+    public void failedWriteDisablesWriter() throws Exception {
+        HeapFile failing = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public void writePages(List<Page> pages) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Database.getCatalog().addTable(failing, "failing");
+        insert(MAGIC, true);
+        writer.setDirtyThreshold(0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getFailure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(writer.getFailure() instanceof IOException);
+        assertFalse(writer.isEnabled());
+        assertEquals(1, writer.getPendingPages());
+        Database.getCatalog().addTable(hf, "hf");
+    }
+
+    /**
+     * Replacing the pool stops the rounds of its writer.
+     */
+    @Test
+    public void resetStopsRounds() throws Exception {
+        insert(MAGIC, true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        writer.setDirtyThreshold(0);
+        Thread.sleep(100);
+        assertEquals(1, writer.getPendingPages());
+        assertEquals(0, writer.getPagesWritten());
+    }
+
+    /** Returns a copy of page with a tuple of value v added. */
+    private static HeapPage with(HeapPage page, int v) throws Exception {
+        HeapPage copy = new HeapPage((HeapPageId) page.getId(), page.getPageData());
+        copy.insertTuple(Utility.getHeapTuple(v, 2));
+        return copy;
+    }
+
+    /**
+     * Recovery repeats history: the write of an aborted transaction stays
+     * undone under a later committed write of the same page, and only the
+     * write of a transaction cut short by the crash is undone.
+     */
+    @Test
+    public void recoveryKeepsCommittedWriteAfterAbort() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        hf.writePage(empty);
+        LogFile log = Database.getLogFile();
+
+        TransactionId aborted = new TransactionId();
+        log.logWrite(aborted, empty, with(empty, MAGIC));
+        log.logAbort(aborted);
+        TransactionId committed = new TransactionId();
+        HeapPage after = with(empty, OTHER);
+        log.logWrite(committed, empty, after);
+        log.logCommit(committed);
+        TransactionId cutShort = new TransactionId();
+        HeapPage stolen = with(after, MAGIC);
+        log.logWrite(cutShort, after, stolen);
+        log.force();
+        hf.writePage(stolen);
+
+        File f = hf.getFile();
+        TupleDesc td = hf.getTupleDesc();
+        Database.reset();
+        HeapFile reopened = new HeapFile(f, td);
+        Database.getCatalog().addTable(reopened, "reopened");
+        Database.getLogFile().recover();
+        assertArrayEquals(after.getPageData(), reopened.readPage(pid).getPageData());
+    }
+
+    /**
+     * An aborted bulk append is not undone by recovery over the committed
+     * insert that reused its page.
+     */
+    @Test
+    public void recoveryAfterAbortedBulkAppend() throws Exception {
+        TransactionId aborted = new TransactionId();
+        assertEquals(1, hf.bulkAppend(aborted, Collections.singletonList(Utility.getHeapTuple(MAGIC, 2)).iterator()));
+        bp.transactionComplete(aborted, false);
+        PageId pid = pid(4);
+        assertEquals(5, hf.numPages());
+
+        TransactionId committed = new TransactionId();
+        Tuple tuple = Utility.getHeapTuple(OTHER, 2);
+        bp.insertTuple(committed, hf.getId(), tuple);
+        assertEquals(pid, tuple.getRecordId().getPageId());
+        bp.transactionComplete(committed);
+
+        File f = hf.getFile();
+        TupleDesc td = hf.getTupleDesc();
+        Database.reset();
+        HeapFile reopened = new HeapFile(f, td);
+        Database.getCatalog().addTable(reopened, "reopened");
+        Database.getLogFile().recover();
+        assertTrue(contains(reopened.readPage(pid), OTHER));
+        assertFalse(contains(reopened.readPage(pid), MAGIC));
+    }
+
+    /**
+     * A Transaction that bulk appends logs its completion as any other
+     * does, not once itself and again from the BufferPool.
+     */
+    @Test
+    public void transactionsLogCompletionOnce() throws Exception {
+        for (boolean commit : new boolean[] {true, false}) {
+            assertEquals(completionRecords(commit, false), completionRecords(commit, true));
+        }
+    }
+
+    /**
+     * Returns the number of log records a Transaction writes to complete,
+     * after bulk appending a tuple if bulk is set.
+     */
+    private int completionRecords(boolean commit, boolean bulk) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        if (bulk) {
+            hf.bulkAppend(t.getId(), Collections.singletonList(Utility.getHeapTuple(MAGIC, 2)).iterator());
+        }
+        int records = Database.getLogFile().getTotalRecords();
+        if (commit) {
+            t.commit();
+        } else {
+            t.abort();
+        }
+        return Database.getLogFile().getTotalRecords() - records;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
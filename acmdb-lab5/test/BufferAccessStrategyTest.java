@@ -0,0 +1,165 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferAccessStrategyTest extends BufferPoolTestBase {
+    private static final int POOL_PAGES = 20;
+
+    private HeapFile hot;
+    private HeapFile big;
+
+    @Before
+    public void setUp() throws Exception {
+        hot = createHeapFile(5);
+        big = createHeapFile(3 * POOL_PAGES);
+        // plain LRU, which a scan flushes on its own
+        setUp(hot, new BufferPool(POOL_PAGES, () -> new LruKPolicy(1)));
+    }
+
+    private void readHotPages() throws Exception {
+        for (int pgNo = 0; pgNo < hot.numPages(); pgNo++) {
+            readPages(pgNo);
+        }
+    }
+
+    private int scanBig() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+        return count;
+    }
+
+    private int cachedHotPages() {
+        int cached = 0;
+        for (int pgNo = 0; pgNo < hot.numPages(); pgNo++) {
+            if (bp.isCached(pid(pgNo))) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Only tables larger than the threshold are scanned through a ring.
+     */
+    @Test
+    public void largeTablesGetRings() {
+        assertNull(bp.getScanStrategy(POOL_PAGES));
+        BufferAccessStrategy strategy = bp.getScanStrategy(POOL_PAGES + 1);
+        assertNotNull(strategy);
+        assertTrue(strategy.getRingPages() < POOL_PAGES);
+        bp.setRingPages(0);
+        assertNull(bp.getScanStrategy(3 * POOL_PAGES));
+    }
+
+    /**
+     * A scan of a table larger than the pool leaves the pages read before
+     * it alone, unless rings are turned off.
+     */
+    @Test
+    public void largeScanKeepsWorkingSet() throws Exception {
+        readHotPages();
+        assertEquals(TUPLES_PER_PAGE * 3 * POOL_PAGES, scanBig());
+        assertEquals(hot.numPages(), cachedHotPages());
+
+        bp.setRingPages(0);
+        scanBig();
+        assertEquals(0, cachedHotPages());
+    }
+
+    /**
+     * A page read into a ring that another transaction asks for stays in
+     * the pool when the ring wraps around.
+     */
+    @Test
+    public void sharedPagesLeaveTheRing() throws Exception {
+        BufferAccessStrategy strategy = new BufferAccessStrategy(2);
+        TransactionId tid = new TransactionId();
+        PageId shared = pid(big, 0);
+        PageId other = pid(big, 1);
+        bp.getPage(tid, shared, Permissions.READ_ONLY, strategy);
+        bp.getPage(tid, other, Permissions.READ_ONLY, strategy);
+        bp.getPage(new TransactionId(), shared, Permissions.READ_ONLY);
+
+        bp.getPage(tid, pid(big, 2), Permissions.READ_ONLY, strategy);
+        bp.getPage(tid, pid(big, 3), Permissions.READ_ONLY, strategy);
+        assertTrue(bp.isCached(shared));
+        assertFalse(bp.isCached(other));
+        assertEquals(1, strategy.getRecycledPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * An insert goes through the pool unless it asks to bypass it, however
+     * many tuples it inserts.
+     */
+    @Test
+    public void insertUsesThePool() throws Exception {
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < TUPLES_PER_PAGE * 8; i++) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), tuples), empty.getId());
+        insert.open();
+        assertEquals(tuples.size(), ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        assertEquals(8, bp.numCached());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A bulk insert appends its tuples without caching the pages it fills.
+     */
+    @Test
+    public void largeInsertBypassesThePool() throws Exception {
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        int rows = TUPLES_PER_PAGE * 2 * POOL_PAGES;
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), tuples), empty.getId(), true);
+        insert.open();
+        assertEquals(rows, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        assertEquals(0, bp.numCached());
+        bp.transactionComplete(tid);
+
+        TransactionId check = new TransactionId();
+        DbFileIterator it = empty.iterator(check);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(count, ((IntField) it.next().getField(0)).getValue());
+            count++;
+        }
+        it.close();
+        bp.transactionComplete(check);
+        assertEquals(rows, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferAccessStrategyTest.class);
+    }
+}
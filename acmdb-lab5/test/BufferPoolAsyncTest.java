@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolAsyncTest extends BufferPoolTestBase {
+    @Before
+    public void setUp() throws Exception {
+        setUp(createHeapFile(10), new BufferPool(16));
+    }
+
+    /**
+     * The page a future completes with is the page on disk, and is cached.
+     */
+    @Test
+    public void readsAndCaches() throws Exception {
+        TransactionId tid = new TransactionId();
+        PageId pid = pid(3);
+        CompletableFuture<Page> future = bp.getPageAsync(tid, pid, Permissions.READ_ONLY);
+        Page page = future.join();
+        assertEquals(pid, page.getId());
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        assertTrue(bp.isCached(pid));
+        assertTrue(bp.holdsLock(tid, pid));
+
+        // cached pages need no read
+        CompletableFuture<Page> again = bp.getPageAsync(tid, pid, Permissions.READ_ONLY);
+        assertTrue(again.isDone());
+        assertSame(page, again.join());
+        assertSame(page, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Several reads can be outstanding at once, including two of the same
+     * page, which end up with the same cached page.
+     */
+    @Test
+    public void outstandingReads() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<CompletableFuture<Page>> futures = new ArrayList<>();
+        for (int pgNo = 0; pgNo < 10; pgNo++) {
+            futures.add(bp.getPageAsync(tid, pid(pgNo), Permissions.READ_ONLY));
+        }
+        CompletableFuture<Page> twice = bp.getPageAsync(tid, pid(9), Permissions.READ_ONLY);
+        for (int pgNo = 0; pgNo < 10; pgNo++) {
+            Page page = futures.get(pgNo).join();
+            assertEquals(pgNo, page.getId().pageNumber());
+            assertArrayEquals(hf.readPage(page.getId()).getPageData(), page.getPageData());
+        }
+        assertSame(futures.get(9).join(), twice.join());
+        assertEquals(10, bp.numCached());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Locks are taken before the read is started, as with getPage.
+     */
+    @Test
+    public void locksFirst() throws Exception {
+        TransactionId writer = new TransactionId();
+        PageId pid = pid(0);
+        bp.getPageAsync(writer, pid, Permissions.READ_WRITE).join();
+        assertTrue(bp.holdsLock(writer, pid));
+        TransactionId reader = new TransactionId();
+        Thread t = new Thread(() -> {
+            try {
+                bp.getPageAsync(reader, pid, Permissions.READ_ONLY).join();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        assertTrue(t.isAlive());
+        assertFalse(bp.holdsLock(reader, pid));
+        bp.transactionComplete(writer);
+        t.join(5000);
+        assertFalse(t.isAlive());
+        assertTrue(bp.holdsLock(reader, pid));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * B+ tree pages of every kind are read asynchronously, and reads past
+     * the end of the file fail.
+     */
+    @Test
+    public void btreePages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPageAsync(rootPtrId).join();
+        BTreePageId rootId = rootPtr.getRootId();
+        assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+        BTreeInternalPage root = (BTreeInternalPage) bp.getPageAsync(tid, rootId, Permissions.READ_ONLY).join();
+        BTreePageId leafId = root.iterator().next().getLeftChild();
+        Page leaf = bp.getPageAsync(tid, leafId, Permissions.READ_ONLY).join();
+        assertArrayEquals(bf.readPage(leafId).getPageData(), leaf.getPageData());
+        bp.transactionComplete(tid);
+
+        try {
+            bf.readPageAsync(new BTreePageId(bf.getId(), bf.numPages() + 1, BTreePageId.LEAF)).join();
+            fail("expected the read past the end to fail");
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * Compressed pages are decompressed when their read completes.
+     */
+    @Test
+    public void compressedPages() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("async", ".dat");
+        f.deleteOnExit();
+        CompressedHeapFile.getDirectoryFile(f).deleteOnExit();
+        f.delete();
+        CompressedHeapFile cf = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(cf, "async");
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            HeapPage page = new HeapPage(new HeapPageId(cf.getId(), pgNo), HeapPage.createEmptyPageData());
+            for (int i = 0; i < 100 * pgNo; i++) {
+                page.insertTuple(Utility.getHeapTuple(i, 2));
+            }
+            cf.writePage(page);
+        }
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            HeapPageId pid = new HeapPageId(cf.getId(), pgNo);
+            assertArrayEquals(cf.readPage(pid).getPageData(), cf.readPageAsync(pid).join().getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolAsyncTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPinTest extends BufferPoolTestBase {
+    @Before
+    public void setUp() throws Exception {
+        setUp(createHeapFile(10), new BufferPool(2));
+    }
+
+    /**
+     * A pinned page stays in the pool until it is unpinned as often as it
+     * was pinned; a pool of pinned pages is full.
+     */
+    @Test
+    public void pinnedPagesAreNotEvicted() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(pid(0)));
+        for (int pgNo = 1; pgNo < 10; pgNo++) {
+            bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        }
+        assertTrue(bp.isCached(pid(0)));
+
+        bp.pinPage(tid, pid(9), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+            fail("expected DbException with every page pinned");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.unpinPage(tid, pid(0));
+        bp.unpinPage(tid, pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertFalse(bp.isCached(pid(0)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserting and deleting tuples replaces the page in its frame, which
+     * keeps its pins and its place in the pool's accounting.
+     */
+    @Test
+    public void updatesKeepFrame() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        PageId pid = new HeapPageId(small.getId(), 0);
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid, Permissions.READ_WRITE);
+        Tuple t = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, small.getId(), t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        assertEquals(1, bp.getPinCount(pid));
+        bp.deleteTuple(tid, t);
+        assertEquals(1, bp.getPinCount(pid));
+        assertEquals(1, bp.getTableUsage(small.getId()).getPages());
+        bp.unpinPage(tid, pid);
+        assertEquals(0, bp.getPinCount(pid));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Completing a transaction releases the pins it still holds.
+     */
+    @Test
+    public void transactionCompleteReleasesPins() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPinCount(pid(0)));
+
+        // a scan pins the page it is reading, and only that page
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        while (it.hasNext()) {
+            it.next();
+        }
+        assertEquals(0, bp.getPinCount(pid(9)));
+        it.close();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A scan reads its tuples from the page it pinned, not from the copy
+     * an earlier batch read returned, even if that page was dropped from
+     * the pool in between.
+     */
+    @Test
+    public void scanReadsPinnedPage() throws Exception {
+        bp = Database.resetBufferPool(20);
+        bp.getReadAhead().setWindow(3);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertTrue(bp.isCached(pid(2)));
+
+        bp.discardPage(pid(2));
+        hf.writePage(new HeapPage((HeapPageId) pid(2), HeapPage.createEmptyPageData()));
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertFalse(pid(2).equals(t.getRecordId().getPageId()));
+            count++;
+        }
+        assertEquals(TUPLES_PER_PAGE * 9, count);
+        it.close();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Writing a page back waits for an exclusive latch on it, and latching
+     * requires a pin.
+     */
+    @Test
+    public void latches() throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            bp.latchPage(pid(0), Permissions.READ_ONLY);
+            fail("expected IllegalStateException for an unpinned page");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        Page page = bp.pinPage(tid, pid(0), Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        bp.latchPage(pid(0), Permissions.READ_WRITE);
+        CountDownLatch flushed = new CountDownLatch(1);
+        Thread flusher = new Thread(() -> {
+            try {
+                bp.flushPages(tid);
+                flushed.countDown();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        flusher.start();
+        assertFalse(flushed.await(200, TimeUnit.MILLISECONDS));
+        bp.unlatchPage(pid(0), Permissions.READ_WRITE);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        assertNull(page.isDirty());
+        bp.unpinPage(tid, pid(0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPinTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolQuotaTest extends BufferPoolTestBase {
+    private HeapFile small;
+    private HeapFile big;
+
+    @Before
+    public void setUp() throws Exception {
+        small = createHeapFile(4);
+        big = createHeapFile(20);
+        // plain LRU on one shard, so that the order of evictions is known
+        setUp(small, new BufferPool(4, 1, () -> new LruKPolicy(1), false));
+    }
+
+    private boolean cached(HeapFile file, int pgNo) {
+        return bp.isCached(pid(file, pgNo));
+    }
+
+    /**
+     * Transient pages are evicted before normal ones, even more recently
+     * used ones.
+     */
+    @Test
+    public void transientPagesGoFirst() throws Exception {
+        Database.getCatalog().setCachePriority(big.getId(), CachePriority.TRANSIENT);
+        readPages(small, 0, 1);
+        readPages(big, 0, 1);
+        readPages(small, 2, 3);
+        assertTrue(cached(small, 0));
+        assertTrue(cached(small, 1));
+        assertFalse(cached(big, 0));
+        assertFalse(cached(big, 1));
+    }
+
+    /**
+     * Pages to keep stay in the pool through a scan of a larger table,
+     * which evicts its own pages instead.
+     */
+    @Test
+    public void keptPagesSurviveScans() throws Exception {
+        Database.getCatalog().setCachePriority(small.getId(), CachePriority.KEEP);
+        readPages(small, 0, 1);
+        for (int pgNo = 0; pgNo < big.numPages(); pgNo++) {
+            readPages(big, pgNo);
+        }
+        assertTrue(cached(small, 0));
+        assertTrue(cached(small, 1));
+        assertEquals(2, bp.getTableUsage(big.getId()).getPages());
+
+        // a pool full of pages to keep still evicts them
+        readPages(small, 2, 3);
+        readPages(big, 0);
+        assertEquals(3, bp.getTableUsage(small.getId()).getPages());
+    }
+
+    /**
+     * A table at its quota replaces its own pages.
+     */
+    @Test
+    public void quotaLimitsTable() throws Exception {
+        Database.getCatalog().setBufferQuota(big.getId(), 2);
+        readPages(small, 0);
+        for (int pgNo = 0; pgNo < 6; pgNo++) {
+            readPages(big, pgNo);
+        }
+        assertEquals(2, bp.getTableUsage(big.getId()).getPages());
+        assertTrue(cached(big, 4));
+        assertTrue(cached(big, 5));
+        assertTrue(cached(small, 0));
+        assertEquals(3, bp.numCached());
+    }
+
+    /**
+     * Occupancy and hit rates are counted per table.
+     */
+    @Test
+    public void usageCounters() throws Exception {
+        readPages(small, 0, 0, 1);
+        readPages(big, 0);
+        TableBufferUsage usage = bp.getTableUsage(small.getId());
+        assertEquals(2, usage.getPages());
+        assertEquals(1, usage.getHits());
+        assertEquals(2, usage.getMisses());
+        assertEquals(1.0 / 3, usage.getHitRate(), 1e-9);
+        assertEquals(1, bp.getTableUsage(big.getId()).getPages());
+        usage.resetCounters();
+        assertEquals(0, usage.getHitRate(), 0);
+    }
+
+    /**
+     * B+ tree internal pages can be given a class of their own.
+     */
+    @Test
+    public void indexPagesHaveOwnClass() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        int id = small.getId();
+        catalog.setCachePriority(id, CachePriority.TRANSIENT);
+        catalog.setIndexCachePriority(id, CachePriority.KEEP);
+        assertEquals(CachePriority.KEEP, catalog.getCachePriority(new BTreePageId(id, 1, BTreePageId.INTERNAL)));
+        assertEquals(CachePriority.KEEP, catalog.getCachePriority(new BTreePageId(id, 0, BTreePageId.ROOT_PTR)));
+        assertEquals(CachePriority.TRANSIENT, catalog.getCachePriority(new BTreePageId(id, 1, BTreePageId.LEAF)));
+        assertEquals(CachePriority.TRANSIENT, catalog.getCachePriority(new HeapPageId(id, 1)));
+        assertEquals(CachePriority.NORMAL, catalog.getCachePriority(new HeapPageId(id + 1, 1)));
+    }
+
+    /**
+     * Classes and quotas can be set in the catalog file.
+     */
+    @Test
+    public void schemaOptions() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter out = new FileWriter(schema)) {
+            out.write("facts (a int, b int) transient quota=3\n");
+            out.write("dims (a int pk) keep\n");
+        }
+        Catalog catalog = Database.getCatalog();
+        catalog.loadSchema(schema.getAbsolutePath());
+        int facts = catalog.getTableId("facts");
+        int dims = catalog.getTableId("dims");
+        assertEquals(CachePriority.TRANSIENT, catalog.getCachePriority(new HeapPageId(facts, 0)));
+        assertEquals(3, catalog.getBufferQuota(facts));
+        assertEquals(CachePriority.KEEP, catalog.getCachePriority(new HeapPageId(dims, 0)));
+        assertEquals(0, catalog.getBufferQuota(dims));
+        new File(schema.getParent(), "facts.dat").delete();
+        new File(schema.getParent(), "dims.dat").delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolQuotaTest.class);
+    }
+}
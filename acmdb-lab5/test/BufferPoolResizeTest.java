@@ -0,0 +1,100 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolResizeTest extends BufferPoolTestBase {
+    @Before
+    public void setUp() throws Exception {
+        setUp(createHeapFile(10), new BufferPool(4));
+    }
+
+    private Page getPage(TransactionId tid, int pgNo, Permissions perm) throws Exception {
+        return bp.getPage(tid, pid(pgNo), perm);
+    }
+
+    /**
+     * Growing keeps the cached pages and makes room for more.
+     */
+    @Test
+    public void growKeepsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            getPage(tid, pgNo, Permissions.READ_ONLY);
+        }
+        assertTrue(bp.resize(8, 0));
+        assertEquals(8, bp.getNumPages());
+        for (int pgNo = 0; pgNo < 8; pgNo++) {
+            getPage(tid, pgNo, Permissions.READ_ONLY);
+        }
+        assertEquals(8, bp.numCached());
+        for (int pgNo = 0; pgNo < 8; pgNo++) {
+            assertTrue(bp.isCached(pid(pgNo)));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Shrinking evicts clean pages down to the new size, and no more.
+     */
+    @Test
+    public void shrinkEvictsCleanPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            getPage(tid, pgNo, Permissions.READ_ONLY);
+        }
+        assertTrue(bp.resize(2, 0));
+        assertEquals(2, bp.numCached());
+        getPage(tid, 9, Permissions.READ_ONLY);
+        assertEquals(2, bp.numCached());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Shrinking waits for dirty pages to be committed before evicting them.
+     */
+    @Test
+    public void shrinkWaitsForDirtyPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            getPage(tid, pgNo, Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        assertFalse(bp.resize(1, 10));
+        assertEquals(4, bp.numCached());
+
+        Thread committer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                bp.transactionComplete(tid);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        committer.start();
+        assertTrue(bp.resize(1, 5000));
+        committer.join();
+        assertEquals(1, bp.numCached());
+    }
+
+    /**
+     * The parser's bufferpool command resizes the pool.
+     */
+    @Test
+    public void parserCommand() throws Exception {
+        Parser p = new Parser();
+        assertTrue(p.handleCommand("bufferpool 6;"));
+        assertEquals(6, bp.getNumPages());
+        assertTrue(p.handleCommand("BUFFERPOOL;"));
+        assertFalse(p.handleCommand("select * from t;"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 30, null, null);
+        bp = new BufferPool(4, 4, () -> new LruKPolicy(2));
+    }
+
+    private Page getPage(TransactionId tid, int pgNo) throws Exception {
+        return bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+    }
+
+    /**
+     * The capacity is shared by the shards, however the pages hash.
+     */
+    @Test
+    public void capacityIsShared() throws Exception {
+        assertEquals(4, bp.getNumShards());
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < hf.numPages(); pgNo++) {
+            getPage(tid, pgNo);
+            assertTrue(bp.numCached() <= 4);
+            assertTrue(bp.isCached(new HeapPageId(hf.getId(), pgNo)));
+        }
+        assertEquals(4, bp.numCached());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A shard whose pages are all dirty makes room by evicting a page of
+     * another shard; only a pool with no clean page at all is full.
+     */
+    @Test
+    public void evictsFromOtherShards() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Page> dirty = new ArrayList<>();
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            Page page = getPage(tid, pgNo);
+            page.markDirty(true, tid);
+            dirty.add(page);
+        }
+        for (int pgNo = 3; pgNo < hf.numPages(); pgNo++) {
+            getPage(tid, pgNo);
+        }
+        for (Page page : dirty) {
+            assertTrue(bp.isCached(page.getId()));
+        }
+
+        getPage(tid, hf.numPages() - 1).markDirty(true, tid);
+        try {
+            getPage(tid, 3);
+            fail("expected DbException with every page dirty");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * Transactions that miss on the same page at the same time end up with
+     * the same cached copy.
+     */
+    @Test
+    public void concurrentMissesCacheOneCopy() throws Exception {
+        PageId pid = new HeapPageId(hf.getId(), 0);
+        int threads = 8;
+        Page[] pages = new Page[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            Thread t = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                try {
+                    start.await();
+                    pages[n] = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            t.start();
+            workers.add(t);
+        }
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        TransactionId tid = new TransactionId();
+        Page cached = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        for (Page page : pages) {
+            assertSame(cached, page);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Transactions that miss on a page while another transaction reads it
+     * wait for that read rather than reading the page again.
+     */
+    @Test
+    public void concurrentMissesReadOnce() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        HeapFile slow = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            protected void readPageData(int pgNo, byte[] dst) throws IOException {
+                slowRead();
+                super.readPageData(pgNo, dst);
+            }
+
+            @Override
+            protected void readPagesData(int firstPgNo, byte[] dst, int count) throws IOException {
+                slowRead();
+                super.readPagesData(firstPgNo, dst, count);
+            }
+
+            private void slowRead() {
+                reads.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Database.getCatalog().addTable(slow, "slow");
+        PageId pid = new HeapPageId(slow.getId(), 0);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                try {
+                    if (tid.getId() % 2 == 0) {
+                        bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    } else {
+                        bp.getPages(tid, Collections.singletonList(pid), Permissions.READ_ONLY);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            t.start();
+            workers.add(t);
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        assertEquals(1, reads.get());
+        assertEquals(3, bp.getCoalescedReads());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Base class for tests of the BufferPool, which read the pages of a heap
+ * file of random tuples through a pool built for the test.
+ */
+public abstract class BufferPoolTestBase extends SimpleDbTestBase {
+    /** The number of tuples of two int columns that fill a page. */
+    protected static final int TUPLES_PER_PAGE = 504;
+
+    protected HeapFile hf;
+    protected BufferPool bp;
+
+    /**
+     * Creates a heap file of the given number of full pages of tuples of
+     * two random int columns.
+     */
+    protected static HeapFile createHeapFile(int pages) throws Exception {
+        return SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * pages, null, null);
+    }
+
+    /**
+     * Creates a heap file of the given number of full pages of tuples of
+     * two int columns, with values below maxValue.
+     */
+    protected static HeapFile createHeapFile(int pages, int maxValue) throws Exception {
+        return SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * pages, maxValue, null, null);
+    }
+
+    /**
+     * Makes file the table the test reads and pool the database's buffer
+     * pool.
+     */
+    protected void setUp(HeapFile file, BufferPool pool) {
+        hf = file;
+        bp = Database.resetBufferPool(pool);
+    }
+
+    protected PageId pid(int pgNo) {
+        return pid(hf, pgNo);
+    }
+
+    protected static PageId pid(DbFile file, int pgNo) {
+        return new HeapPageId(file.getId(), pgNo);
+    }
+
+    /**
+     * Reads a page of the test's table with a transaction of its own.
+     */
+    protected Page readPage(int pgNo) throws Exception {
+        TransactionId tid = new TransactionId();
+        Page page = bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        return page;
+    }
+
+    /**
+     * Reads the given pages of the test's table with one transaction.
+     */
+    protected void readPages(int... pgNos) throws Exception {
+        readPages(hf, pgNos);
+    }
+
+    /**
+     * Reads the given pages of a table with one transaction.
+     */
+    protected void readPages(HeapFile file, int... pgNos) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo : pgNos) {
+            bp.getPage(tid, pid(file, pgNo), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+}
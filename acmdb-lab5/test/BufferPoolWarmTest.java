@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolWarmTest extends BufferPoolTestBase {
+    private File dump;
+
+    @Before
+    public void setUp() throws Exception {
+        setUp(createHeapFile(10), new BufferPool(8));
+        dump = File.createTempFile("pages", ".dat");
+        dump.deleteOnExit();
+    }
+
+    private void awaitPages(int... pgNos) {
+        for (int pgNo : pgNos) {
+            bp.getReadAhead().await(pid(pgNo));
+        }
+    }
+
+    /**
+     * The pages dumped from one pool are loaded into a fresh one.
+     */
+    @Test
+    public void dumpAndWarmUp() throws Exception {
+        readPages(7, 2, 5, 0);
+        assertEquals(4, bp.dumpPages(dump));
+
+        bp = Database.resetBufferPool(8);
+        assertEquals(4, bp.warmUp(dump));
+        awaitPages(0, 2, 5, 7);
+        for (int pgNo : new int[] {0, 2, 5, 7}) {
+            assertTrue(bp.isCached(pid(pgNo)));
+        }
+        assertEquals(4, bp.numCached());
+        assertEquals(4, bp.getReadAhead().getLoaded());
+    }
+
+    /**
+     * Warming up only fills free frames and skips pages already cached.
+     */
+    @Test
+    public void warmUpNeverEvicts() throws Exception {
+        readPages(0, 1, 2, 3, 4, 5);
+        bp.dumpPages(dump);
+
+        bp = Database.resetBufferPool(4);
+        readPages(8, 0);
+        assertEquals(2, bp.warmUp(dump));
+        awaitPages(1, 2, 3, 4, 5);
+        assertEquals(4, bp.numCached());
+        assertTrue(bp.isCached(pid(8)));
+        assertTrue(bp.isCached(pid(0)));
+    }
+
+    /**
+     * A missing or truncated dump loads what it can.
+     */
+    @Test
+    public void damagedDumps() throws Exception {
+        assertEquals(0, bp.warmUp(new File(dump.getPath() + ".missing")));
+
+        readPages(0, 1, 2);
+        bp.dumpPages(dump);
+        try (RandomAccessFile raf = new RandomAccessFile(dump, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        bp = Database.resetBufferPool(8);
+        assertEquals(2, bp.warmUp(dump));
+    }
+
+    /**
+     * A checkpoint dumps the pool and recovery warms it up again.
+     */
+    @Test
+    public void checkpointAndRecover() throws Exception {
+        readPages(3, 4);
+        Database.getLogFile().logCheckpoint();
+
+        bp = Database.resetBufferPool(8);
+        Database.getLogFile().recover();
+        awaitPages(3, 4);
+        assertTrue(bp.isCached(pid(3)));
+        assertTrue(bp.isCached(pid(4)));
+    }
+
+    /**
+     * The pages cached when the parser shuts down are loaded again when it
+     * next opens the catalog.
+     */
+    @Test
+    public void parserRestart() throws Exception {
+        File dir = Files.createTempDirectory("warm").toFile();
+        dir.deleteOnExit();
+        File table = new File(dir, "warm.dat");
+        table.deleteOnExit();
+        Files.copy(hf.getFile().toPath(), table.toPath());
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        Files.write(catalog.toPath(), "warm (a int, b int)\n".getBytes("UTF-8"));
+
+        new Parser().open(catalog.getPath());
+        int tableId = Database.getCatalog().getTableId("warm");
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(tableId, 6), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        new Parser().shutdown();
+
+        assertTrue(Database.getLogFile().residentPagesFile().exists());
+
+        // the statistics scan reads every page too, but through the pool
+        Database.reset();
+        bp = Database.getBufferPool();
+        assertEquals(0, bp.getReadAhead().getWindow());
+        new Parser().open(catalog.getPath());
+        assertEquals(BufferPool.READ_AHEAD_PAGES, bp.getReadAhead().getWindow());
+        PageId pid = new HeapPageId(tableId, 6);
+        bp.getReadAhead().await(pid);
+        assertTrue(bp.isCached(pid));
+        assertTrue(bp.getReadAhead().getLoaded() > 0);
+        Database.getLogFile().residentPagesFile().delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolWarmTest.class);
+    }
+}
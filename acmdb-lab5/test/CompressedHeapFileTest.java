@@ -0,0 +1,121 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private File f;
+    private CompressedHeapFile cf;
+
+    @Before
+    public void setUp() throws Exception {
+        td = Utility.getTupleDesc(2);
+        f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedHeapFile.getDirectoryFile(f).deleteOnExit();
+        f.delete();
+        cf = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(cf, "compressed");
+    }
+
+    private int scan(DbFile file) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Unit test for PageCodec round-tripping random, repetitive and mixed data.
+     */
+    @Test
+    public void codecRoundTrip() throws Exception {
+        Random rand = new Random(0);
+        byte[][] inputs = new byte[3][4096];
+        rand.nextBytes(inputs[0]);
+        for (int i = 0; i < 4096; i += 8) {
+            inputs[2][i] = (byte) rand.nextInt(4);
+        }
+        for (byte[] in : inputs) {
+            byte[] compressed = new byte[PageCodec.maxCompressedLength(in.length)];
+            int n = PageCodec.compress(in, in.length, compressed);
+            byte[] out = new byte[in.length];
+            assertEquals(in.length, PageCodec.decompress(compressed, 0, n, out));
+            assertArrayEquals(in, out);
+
+            // a short destination gets just the prefix
+            byte[] prefix = new byte[100];
+            assertEquals(100, PageCodec.decompress(compressed, 0, n, prefix));
+            assertArrayEquals(Arrays.copyOf(in, 100), prefix);
+        }
+    }
+
+    /**
+     * Tuples inserted through the BufferPool survive a reopen, and the file
+     * is much smaller than the equivalent HeapFile.
+     */
+    @Test
+    public void insertAndReopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(i % 10, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, scan(cf));
+
+        int numPages = cf.numPages();
+        assertTrue(numPages > 1);
+        assertTrue(f.length() < (long) numPages * BufferPool.getPageSize() / 2);
+
+        Database.reset();
+        CompressedHeapFile reopened = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(reopened, "compressed");
+        assertEquals(numPages, reopened.numPages());
+        assertEquals(2000, scan(reopened));
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.convert()
+     */
+    @Test
+    public void convert() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, 10, null, null);
+        File target = File.createTempFile("converted", ".dat");
+        target.deleteOnExit();
+        CompressedHeapFile.getDirectoryFile(target).deleteOnExit();
+
+        cf = CompressedHeapFile.convert(hf, target);
+        Database.getCatalog().addTable(cf, "converted");
+        assertEquals(hf.numPages(), cf.numPages());
+        assertTrue(cf.getCompressedSize() < hf.getFile().length());
+        for (int pgNo = 0; pgNo < hf.numPages(); pgNo++) {
+            HeapPage expected = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+            HeapPage actual = (HeapPage) cf.readPage(new HeapPageId(cf.getId(), pgNo));
+            assertArrayEquals(expected.getPageData(), actual.getPageData());
+        }
+        assertEquals(1000, scan(cf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageCacheTest extends BufferPoolTestBase {
+    private CompressedPageCache tier;
+
+    @Before
+    public void setUp() throws Exception {
+        // small values, so that pages compress well
+        setUp(createHeapFile(8, 16), new BufferPool(2, 1, () -> new LruKPolicy(1), false));
+        tier = bp.getCompressedCache();
+        tier.setCapacity(1 << 20);
+    }
+
+    /**
+     * The tier is off unless it is given a capacity.
+     */
+    @Test
+    public void disabledByDefault() throws Exception {
+        bp = Database.resetBufferPool(new BufferPool(2, 1, () -> new LruKPolicy(1), false));
+        assertFalse(bp.getCompressedCache().isEnabled());
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            readPage(pgNo);
+        }
+        assertEquals(0, bp.getCompressedCache().getNumPages());
+    }
+
+    /**
+     * Evicted pages are kept compressed and are taken from the tier rather
+     * than read again.
+     */
+    @Test
+    public void evictedPagesAreKept() throws Exception {
+        for (int pgNo = 0; pgNo < 6; pgNo++) {
+            readPage(pgNo);
+        }
+        assertEquals(4, tier.getNumPages());
+        assertTrue(tier.getCompressionRatio() > 1);
+        assertTrue(tier.getSize() < 4 * BufferPool.getPageSize());
+
+        Page page = readPage(0);
+        assertEquals(1, tier.getHits());
+        assertArrayEquals(hf.readPage(page.getId()).getPageData(), page.getPageData());
+        // a page is in the pool or in the tier, never both; page 4 moved down
+        assertEquals(4, tier.getNumPages());
+        assertTrue(bp.isCached(page.getId()));
+    }
+
+    /**
+     * The tier drops its oldest pages to stay within its capacity.
+     */
+    @Test
+    public void capacityIsBounded() throws Exception {
+        readPage(0);
+        readPage(1);
+        readPage(2);
+        long perPage = tier.getSize();
+        tier.setCapacity(perPage * 3);
+        for (int pgNo = 3; pgNo < 8; pgNo++) {
+            readPage(pgNo);
+        }
+        assertTrue(tier.getSize() <= tier.getCapacity());
+        assertTrue(tier.getNumPages() <= 3);
+
+        readPage(0);
+        assertEquals(0, tier.getHits());
+        tier.setCapacity(0);
+        assertEquals(0, tier.getNumPages());
+    }
+
+    /**
+     * Discarding a page drops it from the tier too.
+     */
+    @Test
+    public void discardDropsPage() throws Exception {
+        readPage(0);
+        readPage(1);
+        readPage(2);
+        assertEquals(1, tier.getNumPages());
+        bp.discardPage(pid(0));
+        assertEquals(0, tier.getNumPages());
+        readPage(0);
+        assertEquals(0, tier.getHits());
+    }
+
+    /**
+     * B+ tree pages are rebuilt from the tier as well.
+     */
+    @Test
+    public void btreePages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        bp = Database.resetBufferPool(new BufferPool(4, 1, () -> new LruKPolicy(1), false));
+        tier = bp.getCompressedCache();
+        tier.setCapacity(1 << 20);
+        for (int scan = 0; scan < 2; scan++) {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = bf.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            bp.transactionComplete(tid);
+            assertEquals(5000, count);
+        }
+        assertTrue(tier.getHits() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageCacheTest.class);
+    }
+}
@@ -77,6 +77,27 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile; the
+     * mapping must pick up pages appended after it was created.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertTrue(mapped.isMemoryMapped());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+
+        HeapPage appended = new HeapPage(new HeapPageId(hf.getId(), 1),
+                HeapPage.createEmptyPageData());
+        appended.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(appended);
+        assertEquals(2, mapped.numPages());
+        page = (HeapPage) mapped.readPage(appended.getId());
+        assertEquals(appended.numSlots - 1, page.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +142,47 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPages(): runs of pages should come back the
+     * same as when read one at a time.
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        assertEquals(4, big.numPages());
+        List<PageId> pids = new ArrayList<>();
+        for (int pgNo : new int[] {0, 1, 3}) {
+            pids.add(new HeapPageId(big.getId(), pgNo));
+        }
+        List<Page> pages = big.readPages(pids);
+        assertEquals(3, pages.size());
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(big.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.getPages(): pages it reads are cached and
+     * cached pages are returned as they are.
+     */
+    @Test
+    public void bufferPoolGetPages() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.getBufferPool();
+        Page cached = bp.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY);
+        List<PageId> pids = new ArrayList<>();
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            pids.add(new HeapPageId(big.getId(), pgNo));
+        }
+        List<Page> pages = bp.getPages(tid, pids, Permissions.READ_ONLY);
+        assertSame(cached, pages.get(1));
+        for (int i = 0; i < pids.size(); i++) {
+            assertTrue(bp.holdsLock(tid, pids.get(i)));
+            assertSame(pages.get(i), bp.getPage(tid, pids.get(i), Permissions.READ_ONLY));
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,128 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * HeapFile.insertTuple() should go straight to a page with room, locking
+     * only that page, and reuse space freed by a delete.
+     */
+    @Test public void insertLocksOnlyTargetPage() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, empty.numPages());
+
+        HeapPageId full = new HeapPageId(empty.getId(), 0);
+        HeapPageId partial = new HeapPageId(empty.getId(), 1);
+        tid = new TransactionId();
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertFalse(Database.getBufferPool().holdsLock(tid, full));
+        assertTrue(Database.getBufferPool().holdsLock(tid, partial));
+
+        // free a slot on the first page; the next insert should land there
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, full, Permissions.READ_WRITE);
+        Tuple victim = page.iterator().next();
+        empty.deleteTuple(tid, victim);
+        Tuple t = Utility.getHeapTuple(2, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(full, t.getRecordId().getPageId());
+    }
+
+    /**
+     * A page filled by a transaction that aborts has room again afterwards,
+     * and the next insert goes there rather than to a new page.
+     */
+    @Test public void abortedInsertsFreeSpace() throws Exception {
+        for (int i = 0; i < 504; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(1, empty.numPages());
+        assertNull(empty.getFreeSpaceMap().nextFreePage(-1, empty.numPages()));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(Integer.valueOf(0), empty.getFreeSpaceMap().nextFreePage(-1, empty.numPages()));
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(new HeapPageId(empty.getId(), 0), t.getRecordId().getPageId());
+        assertEquals(1, empty.numPages());
+    }
+
+    private static List<Tuple> makeTuples(int n) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        return tuples;
+    }
+
+    private int countTuples(TransactionId tid) throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * HeapFile.bulkAppend() should pack full pages, lock them for the
+     * appending transaction, and leave the last page open to inserts.
+     */
+    @Test public void bulkAppend() throws Exception {
+        // the file starts out with one empty page, which is left alone
+        assertEquals(1100, empty.bulkAppend(tid, makeTuples(1100).iterator()));
+        assertEquals(4, empty.numPages());
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+        assertEquals(1100, countTuples(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1100, countTuples(tid));
+        assertEquals(Integer.valueOf(3), empty.getFreeSpaceMap().nextFreePage(0, empty.numPages()));
+    }
+
+    /**
+     * Aborting a bulk load should empty the pages it appended.
+     */
+    @Test public void bulkAppendAbort() throws Exception {
+        empty.bulkAppend(tid, makeTuples(1100).iterator());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(4, empty.numPages());
+        assertEquals(0, countTuples(tid));
+    }
+
+    /**
+     * HeapFile.bulkAppend() should update the table's statistics when the
+     * transaction commits, and only then.
+     */
+    @Test public void bulkAppendUpdatesStats() throws Exception {
+        String name = Database.getCatalog().getTableName(empty.getId());
+        empty.bulkAppend(tid, makeTuples(10).iterator());
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.setTableStats(name, new TableStats(empty.getId(), 1));
+        TableStats stats = TableStats.getTableStats(name);
+
+        tid = new TransactionId();
+        empty.bulkAppend(tid, makeTuples(300).iterator());
+        assertEquals(10, stats.totalTuples());
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(10, stats.totalTuples());
+
+        tid = new TransactionId();
+        empty.bulkAppend(tid, makeTuples(600).iterator());
+        assertEquals(10, stats.totalTuples());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(610, stats.totalTuples());
+        assertEquals(600.0 / 610, stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(9)), 0.05);
+    }
+
     /**
      * JUnit suite target
      */
@@ -10,6 +10,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -120,6 +121,22 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * An unmodified page hands back its original bytes, and does not keep a
+     * reference to the caller's array.
+     */
+    @Test public void getPageDataUnmodified() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Arrays.fill(data, (byte) 0);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        // materializing tuples does not count as a modification
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) it.next().getField(1)).getValue());
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
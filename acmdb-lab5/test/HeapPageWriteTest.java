@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +130,41 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.writePageData() into a reused, dirty buffer
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.deleteTuple(page.iterator().next());
+
+        ByteBuffer bb = ByteBuffer.allocate(BufferPool.getPageSize());
+        while (bb.hasRemaining()) {
+            bb.put((byte) 0x5a);
+        }
+        bb.clear();
+        page.writePageData(bb);
+        assertEquals(BufferPool.getPageSize(), bb.position());
+        assertArrayEquals(page.getPageData(), bb.array());
+    }
+
+    /**
+     * Field.serialize(ByteBuffer) writes the same bytes as
+     * Field.serialize(DataOutputStream)
+     */
+    @Test public void serializeFieldToBuffer() throws Exception {
+        Field[] fields = {new IntField(-42), new StringField("abc", Type.STRING_LEN),
+                new StringField("", Type.STRING_LEN), new StringField("toolong", 4)};
+        for (Field f : fields) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            f.serialize(new DataOutputStream(baos));
+            ByteBuffer bb = ByteBuffer.allocate(baos.size());
+            f.serialize(bb);
+            assertEquals(0, bb.remaining());
+            assertArrayEquals(baos.toByteArray(), bb.array());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OffHeapBufferPoolTest extends BufferPoolTestBase {
+    @Before
+    public void setUp() throws Exception {
+        setUp(createHeapFile(4), new BufferPool(2, 1, () -> new LruKPolicy(1), true));
+    }
+
+    private static List<List<Integer>> values(Page page) {
+        List<List<Integer>> values = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) page).iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            List<Integer> row = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                row.add(((IntField) t.getField(i)).getValue());
+            }
+            values.add(row);
+        }
+        return values;
+    }
+
+    /**
+     * Clean pages are cached as views that read the same tuples as pages
+     * on the heap.
+     */
+    @Test
+    public void cachesViews() throws Exception {
+        assertTrue(bp.isOffHeap());
+        PageId pid = pid(0);
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertNull(page.data);
+        assertEquals(values(hf.readPage(pid)), values(page));
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A view the pool evicts stays readable after its frame is reused.
+     */
+    @Test
+    public void evictedViewsStayReadable() throws Exception {
+        PageId pid = pid(0);
+        TransactionId tid = new TransactionId();
+        Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        for (int pgNo = 1; pgNo < hf.numPages(); pgNo++) {
+            bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        }
+        assertFalse(bp.isCached(pid));
+        assertEquals(values(hf.readPage(pid)), values(page));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A view is not evicted, nor its frame handed to another page, while
+     * it is being read: here, while its before image is copied from the
+     * frame.
+     */
+    @Test
+    public void evictionWaitsForReads() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread[] reader = new Thread[1];
+        HeapFile blocking = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public TupleDesc getTupleDesc() {
+                if (Thread.currentThread() == reader[0]) {
+                    // the before image is being built from the frame
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getTupleDesc();
+            }
+        };
+        Database.getCatalog().addTable(blocking, "blocking");
+        PageId pid = pid(0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+
+        HeapPage[] before = new HeapPage[1];
+        reader[0] = new Thread(() -> before[0] = page.getBeforeImage());
+        reader[0].start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        CountDownLatch evicted = new CountDownLatch(1);
+        Thread evictor = new Thread(() -> {
+            try {
+                for (int pgNo = 1; pgNo < hf.numPages(); pgNo++) {
+                    bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+                }
+                evicted.countDown();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        evictor.start();
+        assertFalse(evicted.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        reader[0].join();
+        assertTrue(evicted.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(expected, before[0].getPageData());
+        assertArrayEquals(expected, page.getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted into a view are written back along with the ones the
+     * view decodes from its frame.
+     */
+    @Test
+    public void modifiedViewsAreWritten() throws Exception {
+        PageId pid = pid(0);
+        Page before = hf.readPage(pid);
+        Tuple deleted = ((HeapPage) before).iterator().next();
+
+        TransactionId tid = new TransactionId();
+        bp.deleteTuple(tid, deleted);
+        Tuple inserted = Utility.getHeapTuple(new int[] {-1, -2});
+        bp.insertTuple(tid, hf.getId(), inserted);
+        assertEquals(pid, inserted.getRecordId().getPageId());
+        bp.transactionComplete(tid);
+
+        List<List<Integer>> expected = values(before);
+        expected.set(0, Arrays.asList(-1, -2));
+        assertEquals(expected, values(hf.readPage(pid)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
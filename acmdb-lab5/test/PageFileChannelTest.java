@@ -0,0 +1,163 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageFileChannelTest extends SimpleDbTestBase {
+    private File f;
+    private PageFileChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+        channel = new PageFileChannel(f);
+    }
+
+    /**
+     * Positional writes land at the requested offset and can be read back.
+     */
+    @Test
+    public void writeThenRead() throws Exception {
+        byte[] a = new byte[16];
+        byte[] b = new byte[16];
+        Arrays.fill(a, (byte) 1);
+        Arrays.fill(b, (byte) 2);
+        channel.write(16, b);
+        channel.write(0, a);
+        assertEquals(32, channel.size());
+
+        byte[] dst = new byte[16];
+        assertEquals(16, channel.read(16, dst));
+        assertArrayEquals(b, dst);
+        assertEquals(16, channel.read(0, dst));
+        assertArrayEquals(a, dst);
+        channel.close();
+    }
+
+    /**
+     * A short read zero-fills the remainder, and reading past the end
+     * reports -1.
+     */
+    @Test
+    public void readPastEnd() throws Exception {
+        byte[] a = new byte[8];
+        Arrays.fill(a, (byte) 7);
+        channel.write(0, a);
+
+        byte[] dst = new byte[16];
+        Arrays.fill(dst, (byte) 9);
+        assertEquals(8, channel.read(0, dst));
+        for (int i = 0; i < 8; i++) assertEquals(7, dst[i]);
+        for (int i = 8; i < 16; i++) assertEquals(0, dst[i]);
+        assertEquals(-1, channel.read(64, dst));
+        channel.close();
+    }
+
+    /**
+     * A closed channel reopens on demand, so files closed by
+     * Catalog.clear() remain usable.
+     */
+    @Test
+    public void reopenAfterClose() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage before = (HeapPage) hf.readPage(pid);
+        hf.close();
+        HeapPage after = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(before.getPageData(), after.getPageData());
+    }
+
+    /**
+     * Reading a file that does not exist reads an empty file and does not
+     * create it; writing does.
+     */
+    @Test
+    public void readsDoNotCreate() throws Exception {
+        assertTrue(f.delete());
+        byte[] dst = new byte[16];
+        Arrays.fill(dst, (byte) 9);
+        assertEquals(-1, channel.read(0, dst));
+        assertArrayEquals(new byte[16], dst);
+        Arrays.fill(dst, (byte) 9);
+        assertEquals(-1, (int) channel.readAsync(0, dst).join());
+        assertArrayEquals(new byte[16], dst);
+        assertFalse(f.exists());
+
+        channel.write(0, new byte[] {1});
+        assertTrue(f.exists());
+        assertEquals(1, channel.read(0, dst));
+        channel.close();
+    }
+
+    /**
+     * Interrupting a thread during a read closes the channel under every
+     * thread using it; the reads of the others reopen it and go on.
+     */
+    @Test
+    public void readsSurviveOtherThreadsInterrupts() throws Exception {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Arrays.fill(data, (byte) 3);
+        channel.write(0, data);
+
+        Thread interrupted = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                channel.read(0, new byte[data.length]);
+                fail("expected the interrupted read to fail");
+            } catch (IOException expected) {
+                // the channel was closed by the interrupt
+            }
+        });
+        interrupted.start();
+        interrupted.join();
+        byte[] dst = new byte[data.length];
+        assertEquals(data.length, channel.read(0, dst));
+        assertArrayEquals(data, dst);
+
+        // and while reads of other threads are in progress
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread reader = new Thread(() -> {
+            byte[] buf = new byte[data.length];
+            try {
+                for (int i = 0; i < 5000; i++) {
+                    channel.read(0, buf);
+                    channel.write(0, data);
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        reader.start();
+        while (reader.isAlive()) {
+            Thread t = new Thread(() -> {
+                Thread.currentThread().interrupt();
+                try {
+                    channel.read(0, new byte[data.length]);
+                } catch (IOException expected) {
+                    // the channel was closed by the interrupt
+                }
+            });
+            t.start();
+            t.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+        channel.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFileChannelTest.class);
+    }
+}
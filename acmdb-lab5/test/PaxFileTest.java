@@ -0,0 +1,194 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private PaxFile pf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[] {"a", "b", "c"});
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        pf = new PaxFile(f, td);
+        Database.getCatalog().addTable(pf, "pax");
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple makeTuple(int a, String b, int c) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    private void insertRows(int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, pf.getId(), makeTuple(i, "s" + i, i * 10));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for PaxPage round-tripping through getPageData.
+     */
+    @Test
+    public void pageRoundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(pf.getId(), 0);
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData());
+        assertEquals(PaxPage.getNumSlots(td), page.getNumEmptySlots());
+        page.insertTuple(makeTuple(1, "one", 10));
+        page.insertTuple(makeTuple(2, "two", 20));
+        page.insertTuple(makeTuple(3, "three", 30));
+        page.deleteTuple(page.iterator().next());
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(new IntField(2), t.getField(0));
+        assertEquals(new StringField("two", Type.STRING_LEN), t.getField(1));
+        assertEquals(new IntField(20), t.getField(2));
+        assertEquals(new IntField(3), it.next().getField(0));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A scan that asks for some columns decodes only those.
+     */
+    @Test
+    public void projectedScan() throws Exception {
+        insertRows(500);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        DbFileIterator it = pf.iterator(tid, new HashSet<>(Collections.singletonList(2)));
+        it.open();
+        int count = 0;
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            sum += ((IntField) t.getField(2)).getValue();
+            count++;
+        }
+        it.close();
+        assertEquals(500, count);
+        assertEquals(10L * 499 * 500 / 2, sum);
+    }
+
+    /**
+     * Tuples read through a projected scan can still be deleted.
+     */
+    @Test
+    public void deleteThroughProjectedScan() throws Exception {
+        insertRows(100);
+        DbFileIterator it = pf.iterator(tid, Collections.singleton(0));
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        it.close();
+
+        it = pf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(1, ((IntField) t.getField(0)).getValue() % 2);
+            assertEquals(new StringField("s" + ((IntField) t.getField(0)).getValue(), Type.STRING_LEN),
+                    t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(50, count);
+    }
+
+    /**
+     * LogicalPlan.physicalPlan passes the fields the query reads to the scan.
+     */
+    @Test
+    public void physicalPlanPushesColumns() throws Exception {
+        insertRows(200);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(pf.getId(), "p");
+        lp.addFilter("p.a", Predicate.Op.LESS_THAN, "10");
+        lp.addProjectField("p.c", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("pax", new TableStats(pf.getId(), 1));
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            assertEquals(count * 10, ((IntField) t.getField(0)).getValue());
+            count++;
+        }
+        plan.close();
+        assertEquals(10, count);
+    }
+
+    /**
+     * Inserting a tuple pins its page and waits for an exclusive latch on
+     * it, as HeapFile does.
+     */
+    @Test
+    public void insertLatchesPage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuple(tid, pf.getId(), makeTuple(1, "a", 10));
+        HeapPageId pid = new HeapPageId(pf.getId(), 0);
+        bp.pinPage(tid, pid, Permissions.READ_WRITE);
+        bp.latchPage(pid, Permissions.READ_WRITE);
+        CountDownLatch inserted = new CountDownLatch(1);
+        Thread inserter = new Thread(() -> {
+            try {
+                bp.insertTuple(tid, pf.getId(), makeTuple(2, "b", 20));
+                inserted.countDown();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        inserter.start();
+        assertFalse(inserted.await(200, TimeUnit.MILLISECONDS));
+        bp.unlatchPage(pid, Permissions.READ_WRITE);
+        assertTrue(inserted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, bp.getPinCount(pid));
+        bp.unpinPage(tid, pid);
+        assertEquals(0, bp.getPinCount(pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
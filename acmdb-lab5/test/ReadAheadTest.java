@@ -0,0 +1,166 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        File f = File.createTempFile("readahead", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "readahead");
+
+        // 20 full pages of 504 tuples
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 20 * 504; i++) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        tid = new TransactionId();
+        hf.bulkAppend(tid, tuples.iterator());
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).getReadAhead().setWindow(BufferPool.READ_AHEAD_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void getPage(int pgNo) throws Exception {
+        Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    private static void awaitLoaded(ReadAhead readAhead, long n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (readAhead.getLoaded() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Reading two pages in order should load the window after them, and
+     * reading those pages should count as hits.
+     */
+    @Test
+    public void sequentialAccessLoadsWindow() throws Exception {
+        ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+        readAhead.setWindow(4);
+        getPage(0);
+        getPage(1);
+        awaitLoaded(readAhead, 4);
+        assertEquals(4, readAhead.getLoaded());
+        assertEquals(2, readAhead.getMisses());
+
+        for (int p = 2; p <= 5; p++) {
+            getPage(p);
+        }
+        assertEquals(4, readAhead.getHits());
+        assertEquals(2, readAhead.getMisses());
+    }
+
+    /**
+     * Random access and a zero window should not load anything.
+     */
+    @Test
+    public void noReadAheadWithoutSequentialAccess() throws Exception {
+        ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+        getPage(7);
+        getPage(3);
+        getPage(12);
+        readAhead.setWindow(0);
+        getPage(0);
+        getPage(1);
+        Thread.sleep(50);
+        assertEquals(0, readAhead.getLoaded());
+        assertEquals(5, readAhead.getMisses());
+    }
+
+    /**
+     * A full scan should see every tuple once, whether its pages were read
+     * ahead or not.
+     */
+    @Test
+    public void scanWithReadAhead() throws Exception {
+        ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        long sum = 0;
+        int count = 0;
+        while (scan.hasNext()) {
+            sum += ((IntField) scan.next().getField(0)).getValue();
+            count++;
+        }
+        scan.close();
+        assertEquals(20 * 504, count);
+        assertEquals((long) count * (count - 1) / 2, sum);
+        assertEquals(20, readAhead.getHits() + readAhead.getMisses());
+    }
+
+    /**
+     * Replacing the pool cancels the read-ahead batches it has queued.
+     */
+    @Test
+    public void resetCancelsQueuedBatches() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HeapFile blocking = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public int getId() {
+                return hf.getId() + 1;
+            }
+
+            @Override
+            public List<Page> readPages(List<PageId> pids) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.readPages(pids);
+            }
+        };
+        Database.getCatalog().addTable(blocking, "blocking");
+        BufferPool old = Database.getBufferPool();
+        ReadAhead readAhead = old.getReadAhead();
+
+        // hold the shared I/O thread, then queue a batch behind it
+        readAhead.prefetch(new HeapPageId(blocking.getId(), 0));
+        started.await();
+        readAhead.prefetch(new HeapPageId(hf.getId(), 5));
+        old.transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).getReadAhead().setWindow(BufferPool.READ_AHEAD_PAGES);
+        readAhead.prefetch(new HeapPageId(hf.getId(), 6));
+        release.countDown();
+
+        // a batch queued after both on the shared thread marks their end
+        ReadAhead current = Database.getBufferPool().getReadAhead();
+        current.prefetch(new HeapPageId(hf.getId(), 7));
+        awaitLoaded(current, 1);
+        assertEquals(0, readAhead.getLoaded());
+        assertEquals(0, old.numCached());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
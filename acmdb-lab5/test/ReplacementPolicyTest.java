@@ -0,0 +1,107 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance and skips pages that
+     * cannot be evicted.
+     */
+    @Test
+    public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy();
+        for (int i = 0; i < 4; i++) {
+            clock.pageAdded(pid(i));
+        }
+        clock.pageAccessed(pid(0));
+        clock.pageAccessed(pid(2));
+        assertEquals(pid(1), clock.chooseVictim(p -> true));
+        clock.pageRemoved(pid(1));
+
+        // the hand moves on from page 1, clearing page 2's bit on the way
+        assertEquals(pid(3), clock.chooseVictim(p -> true));
+        // page 0 lost its bit on the first sweep
+        assertEquals(pid(0), clock.chooseVictim(p -> !p.equals(pid(3))));
+        assertNull(clock.chooseVictim(p -> false));
+
+        // freed frames are reused
+        clock.pageAdded(pid(9));
+        clock.pageRemoved(pid(0));
+        clock.pageRemoved(pid(2));
+        clock.pageRemoved(pid(3));
+        assertEquals(pid(9), clock.chooseVictim(p -> true));
+    }
+
+    /**
+     * LRU-2 evicts pages requested once, such as those of a scan, before
+     * pages requested repeatedly, however long ago.
+     */
+    @Test
+    public void lru2ScanResistance() {
+        LruKPolicy lru2 = new LruKPolicy(2);
+        for (int i = 0; i < 3; i++) {
+            lru2.pageAdded(pid(i));
+            lru2.pageAccessed(pid(i));
+            lru2.pageAccessed(pid(i));
+        }
+        for (int i = 10; i < 20; i++) {
+            lru2.pageAdded(pid(i));
+            lru2.pageAccessed(pid(i));
+        }
+        assertEquals(pid(10), lru2.chooseVictim(p -> true));
+        assertEquals(pid(11), lru2.chooseVictim(p -> !p.equals(pid(10))));
+        for (int i = 10; i < 20; i++) {
+            lru2.pageRemoved(pid(i));
+        }
+
+        // among the hot pages, the one with the oldest second-to-last request
+        lru2.pageAccessed(pid(0));
+        assertEquals(pid(0), lru2.chooseVictim(p -> true));
+        lru2.pageAccessed(pid(0));
+        assertEquals(pid(1), lru2.chooseVictim(p -> true));
+        lru2.pageRemoved(pid(1));
+        assertEquals(pid(2), lru2.chooseVictim(p -> true));
+    }
+
+    /**
+     * A BufferPool with LRU-2 keeps its hot pages while a larger table is
+     * scanned through it.
+     */
+    @Test
+    public void bufferPoolKeepsHotPages() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(8, () -> new LruKPolicy(2));
+
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 2; round++) {
+            for (int pgNo = 0; pgNo < 2; pgNo++) {
+                bp.getPage(tid, new HeapPageId(hot.getId(), pgNo), Permissions.READ_ONLY);
+            }
+        }
+        for (int pgNo = 0; pgNo < big.numPages(); pgNo++) {
+            bp.getPage(tid, new HeapPageId(big.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        assertTrue(bp.isCached(new HeapPageId(hot.getId(), 0)));
+        assertTrue(bp.isCached(new HeapPageId(hot.getId(), 1)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedFile sf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf, "slotted");
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple makeTuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private List<String> scanNames() throws Exception {
+        ArrayList<String> names = new ArrayList<>();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            names.add(((StringField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        return names;
+    }
+
+    /**
+     * Unit test for SlottedPage round-tripping through getPageData.
+     */
+    @Test
+    public void pageRoundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(makeTuple(1, "a"));
+        page.insertTuple(makeTuple(2, "bcd"));
+        page.insertTuple(makeTuple(3, ""));
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+
+        // the freed slot is reused
+        Tuple t = makeTuple(4, "efgh");
+        page.insertTuple(t);
+        assertEquals(first.getRecordId(), t.getRecordId());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(3, copy.getNumTuples());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Short strings pack far more densely than in a HeapFile.
+     */
+    @Test
+    public void insertScanDelete() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), makeTuple(i, "n" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // a HeapFile of this schema holds 30 tuples per page
+        assertTrue(sf.numPages() < 1000 / 30 / 4);
+
+        tid = new TransactionId();
+        List<String> names = scanNames();
+        assertEquals(1000, names.size());
+        assertTrue(names.contains("n999"));
+
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(999, scanNames().size());
+
+        Database.getBufferPool().insertTuple(tid, sf.getId(), makeTuple(-1, "again"));
+        names = scanNames();
+        assertEquals(1000, names.size());
+        assertTrue(names.contains("again"));
+    }
+
+    /**
+     * Unit test for SlottedFile.convert()
+     */
+    @Test
+    public void convert() throws Exception {
+        File hfFile = File.createTempFile("heap", ".dat");
+        hfFile.deleteOnExit();
+        HeapFile hf = new HeapFile(hfFile, td);
+        Database.getCatalog().addTable(hf, "heap");
+        for (int i = 0; i < 200; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), makeTuple(i, "name" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        File target = File.createTempFile("converted", ".dat");
+        target.deleteOnExit();
+        sf = SlottedFile.convert(hf, target);
+        Database.getCatalog().addTable(sf, "converted");
+        assertTrue(sf.numPages() < hf.numPages());
+        List<String> names = scanNames();
+        assertEquals(200, names.size());
+        assertTrue(names.contains("name0"));
+        assertTrue(names.contains("name199"));
+    }
+
+    /**
+     * Inserting a tuple pins its page and waits for an exclusive latch on
+     * it, as HeapFile does.
+     */
+    @Test
+    public void insertLatchesPage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuple(tid, sf.getId(), makeTuple(1, "a"));
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        bp.pinPage(tid, pid, Permissions.READ_WRITE);
+        bp.latchPage(pid, Permissions.READ_WRITE);
+        CountDownLatch inserted = new CountDownLatch(1);
+        Thread inserter = new Thread(() -> {
+            try {
+                bp.insertTuple(tid, sf.getId(), makeTuple(2, "b"));
+                inserted.countDown();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        inserter.start();
+        assertFalse(inserted.await(200, TimeUnit.MILLISECONDS));
+        bp.unlatchPage(pid, Permissions.READ_WRITE);
+        assertTrue(inserted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, bp.getPinCount(pid));
+        bp.unpinPage(tid, pid);
+        assertEquals(0, bp.getPinCount(pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class StripedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private File[] dirs;
+    private StripedHeapFile sf;
+
+    @Before
+    public void setUp() throws Exception {
+        td = Utility.getTupleDesc(2);
+        dirs = new File[3];
+        for (int i = 0; i < dirs.length; i++) {
+            dirs[i] = Files.createTempDirectory("stripe").toFile();
+            dirs[i].deleteOnExit();
+        }
+        sf = new StripedHeapFile(new Tablespace("wide", dirs).files("striped.dat"), td);
+        for (File stripe : sf.getStripes()) {
+            stripe.deleteOnExit();
+        }
+        Database.getCatalog().addTable(sf, "striped");
+    }
+
+    private HeapPage page(int pgNo) throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(sf.getId(), pgNo), HeapPage.createEmptyPageData());
+        for (int i = 0; i <= pgNo; i++) {
+            page.insertTuple(Utility.getHeapTuple(pgNo * 1000 + i, 2));
+        }
+        return page;
+    }
+
+    private int pages(File f) {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Page N is page N / k of stripe N mod k, however it was written and
+     * read.
+     */
+    @Test
+    public void pagesAreStriped() throws Exception {
+        List<Page> written = new ArrayList<>();
+        for (int pgNo = 0; pgNo < 7; pgNo++) {
+            written.add(page(pgNo));
+        }
+        sf.writePages(written.subList(0, 5));
+        sf.writePage(written.get(5));
+        sf.writePage(written.get(6));
+
+        File[] stripes = sf.getStripes();
+        assertEquals(sf.getFile(), stripes[0]);
+        assertEquals(3, pages(stripes[0]));
+        assertEquals(2, pages(stripes[1]));
+        assertEquals(2, pages(stripes[2]));
+        assertEquals(7, sf.numPages());
+
+        List<PageId> pids = new ArrayList<>();
+        for (int pgNo = 0; pgNo < 7; pgNo++) {
+            PageId pid = new HeapPageId(sf.getId(), pgNo);
+            pids.add(pid);
+            byte[] expected = written.get(pgNo).getPageData();
+            assertArrayEquals(expected, sf.readPage(pid).getPageData());
+            assertArrayEquals(expected, sf.readPageAsync(pid).join().getPageData());
+        }
+        List<Page> read = sf.readPages(pids);
+        for (int pgNo = 0; pgNo < 7; pgNo++) {
+            assertArrayEquals(written.get(pgNo).getPageData(), read.get(pgNo).getPageData());
+        }
+    }
+
+    /**
+     * Tuples inserted through the buffer pool go to new pages on all
+     * stripes, and are all found by a scan.
+     */
+    @Test
+    public void insertAndScan() throws Exception {
+        BufferPool bp = Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        int count = 504 * 4 + 10;
+        for (int i = 0; i < count; i++) {
+            bp.insertTuple(tid, sf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        assertEquals(5, sf.numPages());
+        for (File stripe : sf.getStripes()) {
+            assertTrue(pages(stripe) > 0);
+        }
+
+        bp = Database.resetBufferPool(50);
+        tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int scanned = 0;
+        while (it.hasNext()) {
+            it.next();
+            scanned++;
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        assertEquals(count, scanned);
+    }
+
+    /**
+     * Tablespaces are declared in the catalog file and place tables in
+     * their directories.
+     */
+    @Test
+    public void schemaTablespaces() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter out = new FileWriter(schema)) {
+            out.write("tablespace fast " + dirs[0].getAbsolutePath() + "\n");
+            out.write("tablespace wide " + dirs[1].getAbsolutePath() + " " + dirs[2].getAbsolutePath() + "\n");
+            out.write("small (a int, b int) tablespace=fast\n");
+            out.write("big (a int, b int) tablespace=wide\n");
+        }
+        Catalog catalog = Database.getCatalog();
+        catalog.loadSchema(schema.getAbsolutePath());
+        assertTrue(catalog.getTablespace("wide").isStriped());
+
+        DbFile small = catalog.getDatabaseFile(catalog.getTableId("small"));
+        assertEquals(HeapFile.class, small.getClass());
+        assertEquals(new File(dirs[0], "small.dat"), ((HeapFile) small).getFile());
+
+        StripedHeapFile big = (StripedHeapFile) catalog.getDatabaseFile(catalog.getTableId("big"));
+        assertArrayEquals(new File[] {new File(dirs[1], "big.dat"), new File(dirs[2], "big.dat")},
+                big.getStripes());
+        catalog.clear();
+        for (File f : new File[] {((HeapFile) small).getFile(), big.getStripes()[0], big.getStripes()[1]}) {
+            f.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StripedHeapFileTest.class);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
@@ -112,6 +113,82 @@ public class TransactionTest extends TestUtil.CreateHeapFile {
     testTransactionComplete(false);
   }
 
+  /**
+   * Unit test for BufferPool.transactionComplete() assuming abort.
+   * Verify that an abort restores a cached page from its before-image,
+   * which holds the last committed version, rather than from disk.
+   */
+  @Test public void abortRestoresBeforeImage() throws Exception {
+    HeapPage p = (HeapPage) bp.getPage(tid1, p2, Permissions.READ_WRITE);
+    Tuple t = Utility.getHeapTuple(new int[] { 6, 830 });
+    p.insertTuple(t);
+    p.markDirty(true, tid1);
+    bp.transactionComplete(tid1, true);
+    byte[] committed = bp.getPage(tid2, p2, Permissions.READ_ONLY).getPageData();
+
+    // change the page on disk behind the pool's back; an abort that read
+    // the disk would pick this up
+    empty.writePage(new HeapPage((HeapPageId) p2, HeapPage.createEmptyPageData()));
+
+    p = (HeapPage) bp.getPage(tid2, p2, Permissions.READ_WRITE);
+    p.deleteTuple(t);
+    p.markDirty(true, tid2);
+    bp.transactionComplete(tid2, false);
+
+    TransactionId tid3 = new TransactionId();
+    assertArrayEquals(committed, bp.getPage(tid3, p2, Permissions.READ_ONLY).getPageData());
+    bp.transactionComplete(tid3);
+  }
+
+  /**
+   * Unit test for BufferPool.transactionComplete() assuming abort.
+   * Verify that an abort restores the B+ tree pages it dirtied, including
+   * the ones split by its inserts, to their committed versions.
+   */
+  @Test public void abortRestoresBTreePages() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000, null, null, 0);
+    // the encoder resets the buffer pool
+    bp = Database.getBufferPool();
+    Map<PageId, byte[]> committed = new HashMap<PageId, byte[]>();
+    DbFileIterator it = bf.iterator(tid1);
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+    }
+    it.close();
+    bp.transactionComplete(tid1);
+    for (int pgNo = 0; pgNo <= bf.numPages(); pgNo++) {
+      for (int categ : new int[] { BTreePageId.ROOT_PTR, BTreePageId.INTERNAL, BTreePageId.LEAF }) {
+        BTreePageId pid = new BTreePageId(bf.getId(), pgNo, categ);
+        if (bp.isCached(pid)) {
+          committed.put(pid, bp.getPage(tid2, pid, Permissions.READ_ONLY).getPageData());
+        }
+      }
+    }
+    bp.transactionComplete(tid2);
+
+    TransactionId tid3 = new TransactionId();
+    for (int i = 0; i < 600; i++) {
+      bp.insertTuple(tid3, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+    }
+    bp.transactionComplete(tid3, false);
+
+    TransactionId tid4 = new TransactionId();
+    for (Map.Entry<PageId, byte[]> entry : committed.entrySet()) {
+      assertArrayEquals(entry.getValue(), bp.getPage(tid4, entry.getKey(), Permissions.READ_ONLY).getPageData());
+    }
+    int count = 0;
+    it = bf.iterator(tid4);
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    bp.transactionComplete(tid4);
+    assertEquals(1000, count);
+  }
+
   /**
    * JUnit suite target
    */
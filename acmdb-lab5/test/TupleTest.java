@@ -1,6 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -68,6 +71,23 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * A tuple decoded lazily from serialized bytes keeps its own copy of
+     * them, not the caller's array.
+     */
+    @Test public void lazyFields() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ByteBuffer bb = ByteBuffer.allocate(4 + td.getSize());
+        bb.putInt(99).putInt(-1).putInt(37);
+        byte[] data = bb.array();
+
+        Tuple tup = new Tuple(td, data, 4);
+        assertEquals(new IntField(-1), tup.getField(0));
+        Arrays.fill(data, (byte) 0);
+        assertEquals(new IntField(-1), tup.getField(0));
+        assertEquals(new IntField(37), tup.getField(1));
+    }
+
     /**
      * JUnit suite target
      */
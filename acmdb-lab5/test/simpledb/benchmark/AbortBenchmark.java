@@ -0,0 +1,67 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the latency of BufferPool.transactionComplete for aborting
+ * transactions. Every transaction inserts one tuple on each of a number of
+ * random pages of a table that fits in the pool, then aborts; the pages it
+ * dirtied have to be put back to their committed versions.
+ * <p>
+ * Usage: <code>AbortBenchmark [tablePages] [transactions]</code>. The
+ * defaults are 200 and 5000; each round is run with 1 and with 10 pages
+ * dirtied per transaction.
+ */
+public class AbortBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("abort", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "abort");
+        for (int pgNo = 0; pgNo < tablePages; pgNo++) {
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), pgNo), HeapPage.createEmptyPageData()));
+        }
+        System.out.printf("table %d pages, %d transactions%n", tablePages, transactions);
+
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (int dirtied : new int[] {1, 10}) {
+                run(hf, dirtied, transactions);
+            }
+        }
+    }
+
+    private static void run(HeapFile hf, int dirtied, int transactions) throws Exception {
+        int tablePages = hf.numPages();
+        BufferPool bp = Database.resetBufferPool(tablePages + 1);
+        bp.getBackgroundWriter().setEnabled(false);
+        Random rand = new Random(0);
+        long[] latencies = new long[transactions];
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            for (int j = 0; j < dirtied; j++) {
+                PageId pid = new HeapPageId(hf.getId(), rand.nextInt(tablePages));
+                HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                page.insertTuple(Utility.getHeapTuple(i, 2));
+                page.markDirty(true, tid);
+            }
+            long abort = System.nanoTime();
+            bp.transactionComplete(tid, false);
+            latencies[i] = System.nanoTime() - abort;
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%2d pages dirtied: abort p50 %6.1fus p99 %7.1fus, mean %6.1fus%n",
+                dirtied, latencies[transactions / 2] / 1e3, latencies[transactions * 99 / 100] / 1e3,
+                Arrays.stream(latencies).average().getAsDouble() / 1e3);
+    }
+}
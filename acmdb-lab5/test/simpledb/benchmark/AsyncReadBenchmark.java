@@ -0,0 +1,78 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the throughput of random page reads through the BufferPool at
+ * different queue depths: one getPage at a time, and batches of getPageAsync
+ * calls whose reads are all outstanding before the batch is waited for.
+ * Pages are discarded after every batch, so that every read misses the pool;
+ * whether it reaches the device depends on the OS page cache, so drop it
+ * between runs to measure the device.
+ * <p>
+ * Usage: <code>AsyncReadBenchmark [tablePages] [reads]</code>. The defaults
+ * are 20000 and 20000.
+ */
+public class AsyncReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("async", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "async");
+        List<Page> pages = new ArrayList<>();
+        for (int pgNo = 0; pgNo < tablePages; pgNo++) {
+            pages.add(new HeapPage(new HeapPageId(hf.getId(), pgNo), HeapPage.createEmptyPageData()));
+        }
+        hf.writePages(pages);
+        System.out.printf("table %d pages, %d random reads%n", tablePages, reads);
+
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (int depth : new int[] {1, 4, 16, 64}) {
+                run(hf, depth, reads);
+            }
+        }
+    }
+
+    private static void run(HeapFile hf, int depth, int reads) throws Exception {
+        int tablePages = hf.numPages();
+        BufferPool bp = Database.resetBufferPool(depth);
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int done = 0; done < reads; done += depth) {
+            TransactionId tid = new TransactionId();
+            List<PageId> pids = new ArrayList<>();
+            for (int i = 0; i < depth; i++) {
+                pids.add(new HeapPageId(hf.getId(), rand.nextInt(tablePages)));
+            }
+            if (depth == 1) {
+                bp.getPage(tid, pids.get(0), Permissions.READ_ONLY);
+            } else {
+                List<CompletableFuture<Page>> batch = new ArrayList<>();
+                for (PageId pid : pids) {
+                    batch.add(bp.getPageAsync(tid, pid, Permissions.READ_ONLY));
+                }
+                for (CompletableFuture<Page> page : batch) {
+                    page.join();
+                }
+            }
+            bp.transactionComplete(tid);
+            for (PageId pid : pids) {
+                bp.discardPage(pid);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("queue depth %2d: %8.0f pages/s%n", depth, reads / seconds);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the commit latency of small update transactions with the
+ * BufferPool forcing their pages at commit and with the background writer
+ * writing them, and reports how many pages evictions had to write
+ * themselves. Every transaction inserts one tuple on a random page of a
+ * table larger than the pool, then commits.
+ * <p>
+ * Usage: <code>BackgroundWriterBenchmark [poolPages] [tablePages] [transactions]</code>.
+ * The defaults are 100, 400 and 2000.
+ */
+public class BackgroundWriterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int tablePages = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int transactions = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("writer", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "writer");
+        for (int pgNo = 0; pgNo < tablePages; pgNo++) {
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), pgNo), HeapPage.createEmptyPageData()));
+        }
+        System.out.printf("pool %d pages, table %d pages, %d transactions%n", poolPages, tablePages, transactions);
+
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (boolean background : new boolean[] {false, true}) {
+                run(background, poolPages, hf, transactions);
+            }
+        }
+    }
+
+    private static void run(boolean background, int poolPages, HeapFile hf, int transactions)
+            throws Exception {
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        BackgroundWriter writer = bp.getBackgroundWriter();
+        writer.setEnabled(background);
+        int tablePages = hf.numPages();
+        Random rand = new Random(0);
+        long[] latencies = new long[transactions];
+        long start = System.nanoTime();
+        for (int i = 0; i < transactions; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            PageId pid = new HeapPageId(hf.getId(), rand.nextInt(tablePages));
+            HeapPage page = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(Utility.getHeapTuple(i, 2));
+                page.markDirty(true, t.getId());
+            }
+            long commit = System.nanoTime();
+            t.commit();
+            latencies[i] = System.nanoTime() - commit;
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        writer.setEnabled(false);
+
+        Arrays.sort(latencies);
+        System.out.printf("%-10s commit p50 %6.1fus p99 %7.1fus, %5.2fs, %d written in background with %d writes, %d by evictions%n",
+                background ? "background" : "force",
+                latencies[transactions / 2] / 1e3, latencies[transactions * 99 / 100] / 1e3, secs,
+                writer.getPagesWritten(), writer.getWrites(), writer.getSynchronousWrites());
+    }
+}
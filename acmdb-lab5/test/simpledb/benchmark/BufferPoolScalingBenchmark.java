@@ -0,0 +1,103 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how the throughput of concurrent BufferPool.getPage calls on
+ * cached pages grows with the number of threads, for a pool with a single
+ * shard and for a pool with the default number of shards. Every thread runs
+ * its own read-only transactions over random pages of one table, which fits
+ * in the pool, so the only shared state is the pool and the lock manager.
+ * <p>
+ * Usage: <code>BufferPoolScalingBenchmark [maxThreads] [pages] [requestsPerThread]</code>.
+ * The defaults are twice the number of processors, 256 and 1000000.
+ */
+public class BufferPoolScalingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("scaling", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "scaling");
+        int n = pages * ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+        TransactionId load = new TransactionId();
+        hf.bulkAppend(load, new Iterator<Tuple>() {
+            int i = 0;
+
+            public boolean hasNext() {
+                return i < n;
+            }
+
+            public Tuple next() {
+                return Utility.getHeapTuple(i++, 2);
+            }
+        });
+        Database.getBufferPool().transactionComplete(load);
+
+        int poolPages = 2 * pages;
+        int shards = new BufferPool(poolPages).getNumShards();
+        System.out.printf("%d processors, %d cached pages, %d requests per thread%n",
+                Runtime.getRuntime().availableProcessors(), pages, requests);
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                for (int s : new int[] {1, shards}) {
+                    BufferPool bp = new BufferPool(poolPages, s, () -> new LruKPolicy(2));
+                    double secs = run(bp, hf.getId(), pages, threads, requests);
+                    System.out.printf("%2d threads %2d shards %8.0f requests/ms%n",
+                            threads, s, threads * requests / secs / 1000);
+                }
+            }
+        }
+    }
+
+    private static double run(BufferPool bp, int tableId, int pages, int threads, int requests)
+            throws Exception {
+        TransactionId warm = new TransactionId();
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            bp.getPage(warm, new HeapPageId(tableId, pgNo), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warm);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers.add(new Thread(() -> {
+                Random rand = new Random(seed);
+                try {
+                    TransactionId tid = new TransactionId();
+                    for (int r = 0; r < requests; r++) {
+                        bp.getPage(tid, new HeapPageId(tableId, rand.nextInt(pages)), Permissions.READ_ONLY);
+                        if (r % 100 == 99) {
+                            bp.transactionComplete(tid);
+                            tid = new TransactionId();
+                        }
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
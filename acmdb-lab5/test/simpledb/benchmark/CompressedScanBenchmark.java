@@ -0,0 +1,141 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares full SeqScans of a HeapFile with scans of the same data stored as
+ * a CompressedHeapFile, and reports bytes on disk, scan throughput and the
+ * CPU time spent decompressing alone, to show the I/O-versus-CPU tradeoff.
+ * <p>
+ * Usage: <code>CompressedScanBenchmark [sizeMB] [runs]</code>. The table has
+ * two small-domain int columns and a short string column padded to
+ * {@link Type#STRING_LEN}. The defaults (256MB, 3 runs) fit in the OS page
+ * cache, which hides the I/O savings; pass a size beyond the machine's
+ * memory, or drop the page cache between runs, to see them.
+ */
+public class CompressedScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        int pageSize = BufferPool.getPageSize();
+        int numPages = (int) ((long) sizeMB * 1024 * 1024 / pageSize);
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE});
+        File plain = File.createTempFile("plainbench", ".dat");
+        File compressed = File.createTempFile("compbench", ".dat");
+        File dir = CompressedHeapFile.getDirectoryFile(compressed);
+        plain.deleteOnExit();
+        compressed.deleteOnExit();
+        dir.deleteOnExit();
+
+        System.out.println("Writing " + numPages + " pages (" + sizeMB + "MB) to " + plain);
+        writeFullPages(plain, numPages, td);
+        Database.reset();
+        HeapFile source = new HeapFile(plain, td);
+        Database.getCatalog().addTable(source, "plain");
+        long start = System.nanoTime();
+        CompressedHeapFile.convert(source, compressed);
+        System.out.printf("Compressed in %.2fs: %d bytes -> %d bytes (+%d directory), ratio %.2f%n",
+                (System.nanoTime() - start) / 1e9, plain.length(), compressed.length(), dir.length(),
+                (double) plain.length() / (compressed.length() + dir.length()));
+
+        for (int run = 0; run < runs; run++) {
+            for (boolean compress : new boolean[] {false, true}) {
+                Database.reset();
+                Database.getBufferPool().getReadAhead().setWindow(BufferPool.READ_AHEAD_PAGES);
+                HeapFile hf = compress ? new CompressedHeapFile(compressed, td) : new HeapFile(plain, td);
+                start = System.nanoTime();
+                long count = scan(hf);
+                double secs = (System.nanoTime() - start) / 1e9;
+                long diskBytes = compress ? compressed.length() : plain.length();
+                System.out.printf("run %d %-10s %d tuples in %.2fs (%.1f MB/s logical, %.1f MB/s from disk)%n",
+                        run, compress ? "compressed" : "plain", count, secs, sizeMB / secs,
+                        diskBytes / secs / (1 << 20));
+            }
+        }
+        decompressOnly(plain, numPages);
+
+        plain.delete();
+        compressed.delete();
+        dir.delete();
+    }
+
+    /** Runs a SeqScan over the whole file and returns the number of tuples. */
+    private static long scan(HeapFile hf) throws Exception {
+        Database.getCatalog().addTable(hf, "bench");
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "bench");
+        long count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Times compressing and decompressing every page of f in memory, with no
+     * I/O, i.e. the CPU cost compression adds to each page read and write.
+     */
+    private static void decompressOnly(File f, int numPages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] page = new byte[pageSize];
+        byte[] compressed = new byte[PageCodec.maxCompressedLength(pageSize)];
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f), 1 << 20))) {
+            for (int p = 0; p < numPages; p++) {
+                in.readFully(page);
+                long t0 = System.nanoTime();
+                int n = PageCodec.compress(page, pageSize, compressed);
+                long t1 = System.nanoTime();
+                PageCodec.decompress(compressed, 0, n, page);
+                decompressNanos += System.nanoTime() - t1;
+                compressNanos += t1 - t0;
+            }
+        }
+        System.out.printf("CPU only: compress %.1f us/page, decompress %.1f us/page (%.1f MB/s)%n",
+                compressNanos / 1e3 / numPages, decompressNanos / 1e3 / numPages,
+                (double) numPages * pageSize / (1 << 20) / (decompressNanos / 1e9));
+    }
+
+    /** Writes numPages full HeapPages of repetitive data. */
+    private static void writeFullPages(File f, int numPages, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        String[] names = {"red", "green", "blue", "cyan", "magenta", "yellow"};
+        Random rand = new Random(0);
+
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (int p = 0; p < numPages; p++) {
+                page.clear();
+                Arrays.fill(page.array(), (byte) 0);
+                for (int i = 0; i < headerSize; i++) {
+                    int used = Math.min(8, slots - i * 8);
+                    page.put((byte) ((1 << used) - 1));
+                }
+                for (int i = 0; i < slots; i++) {
+                    page.putInt(rand.nextInt(100));
+                    page.putInt(p);
+                    byte[] name = names[rand.nextInt(names.length)].getBytes();
+                    page.putInt(name.length);
+                    page.put(name);
+                    page.position(page.position() + Type.STRING_LEN - name.length);
+                }
+                out.write(page.array());
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares full SeqScans of a HeapFile read through the file channel with
+ * scans of the same file read through a memory mapping.
+ * <p>
+ * Usage: <code>HeapFileScanBenchmark [sizeMB] [columns] [runs]</code>.
+ * The defaults (1024MB, 4 columns, 3 runs) are small enough for a laptop;
+ * pass a multi-GB size to exceed the OS page cache.
+ */
+public class HeapFileScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        int pageSize = BufferPool.getPageSize();
+        int numPages = (int) ((long) sizeMB * 1024 * 1024 / pageSize);
+        File f = File.createTempFile("scanbench", ".dat");
+        f.deleteOnExit();
+        System.out.println("Writing " + numPages + " pages (" + sizeMB + "MB) to " + f);
+        writeFullPages(f, numPages, columns);
+
+        for (int run = 0; run < runs; run++) {
+            for (boolean mmap : new boolean[] {false, true}) {
+                long start = System.nanoTime();
+                long count = scan(f, columns, mmap);
+                double secs = (System.nanoTime() - start) / 1e9;
+                System.out.printf("run %d %-8s %d tuples in %.2fs (%.1f MB/s)%n", run,
+                        mmap ? "mmap" : "channel", count, secs, sizeMB / secs);
+            }
+        }
+        f.delete();
+    }
+
+    /** Runs a SeqScan over the whole file and returns the number of tuples. */
+    private static long scan(File f, int columns, boolean mmap) throws Exception {
+        Database.reset();
+        Database.getBufferPool().getReadAhead().setWindow(BufferPool.READ_AHEAD_PAGES);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns), mmap);
+        Database.getCatalog().addTable(hf, "bench");
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "bench");
+        long count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /** Writes numPages HeapPages with every slot filled with random ints. */
+    private static void writeFullPages(File f, int numPages, int columns) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = columns * Type.INT_TYPE.getLen();
+        int slots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        Random rand = new Random(0);
+
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20)) {
+            for (int p = 0; p < numPages; p++) {
+                page.clear();
+                for (int i = 0; i < headerSize; i++) {
+                    int used = Math.min(8, slots - i * 8);
+                    page.put((byte) ((1 << used) - 1));
+                }
+                for (int i = 0; i < slots * columns; i++) {
+                    page.putInt(rand.nextInt());
+                }
+                out.write(page.array());
+            }
+        }
+    }
+}
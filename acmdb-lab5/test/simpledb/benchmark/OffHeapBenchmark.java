@@ -0,0 +1,107 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+/**
+ * Compares a BufferPool that keeps its pages on the heap with one that
+ * keeps them off the heap. A table that fits in the pool is scanned
+ * repeatedly, so that every page is cached and every tuple reached; for
+ * each pool the benchmark reports the heap in use with the table cached,
+ * the time and number of garbage collections during the scans, and the scan
+ * throughput.
+ * <p>
+ * Usage: <code>OffHeapBenchmark [pages] [scans]</code>. The defaults are
+ * 5000 and 10. Run with a heap large enough for the on-heap pool, e.g.
+ * -Xmx1g for the default size.
+ */
+public class OffHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("offheap", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "offheap");
+        int n = pages * ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+        TransactionId load = new TransactionId();
+        hf.bulkAppend(load, new Iterator<Tuple>() {
+            int i = 0;
+
+            public boolean hasNext() {
+                return i < n;
+            }
+
+            public Tuple next() {
+                return Utility.getHeapTuple(i++, 2);
+            }
+        });
+        Database.getBufferPool().transactionComplete(load);
+        System.out.printf("%d pages, %d tuples, %d scans%n", pages, n, scans);
+
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (boolean offHeap : new boolean[] {false, true}) {
+                run(offHeap, hf, pages + 1, scans);
+            }
+        }
+    }
+
+    private static void run(boolean offHeap, HeapFile hf, int poolPages, int scans) throws Exception {
+        Database.resetBufferPool(null);
+        System.gc();
+        long baseline = usedHeap();
+        BufferPool bp = Database.resetBufferPool(new BufferPool(poolPages, 1, () -> new LruKPolicy(2), offHeap));
+        scan(hf);
+
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount -= gc.getCollectionCount();
+            gcMillis -= gc.getCollectionTime();
+        }
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < scans; i++) {
+            sum += scan(hf);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcMillis += gc.getCollectionTime();
+        }
+        System.gc();
+        long heap = usedHeap() - baseline;
+
+        System.out.printf("%-8s heap in use %6.1f MB, %4d GCs taking %5d ms, %6.0f tuples/ms%n",
+                bp.isOffHeap() ? "off-heap" : "heap", heap / 1048576.0, gcCount, gcMillis,
+                sum / secs / 1000);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** Scans the table, reading the first field of every tuple, and returns the tuple count. */
+    private static long scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "offheap");
+        scan.open();
+        long count = 0;
+        while (scan.hasNext()) {
+            scan.next().getField(0);
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Measures the time and heap allocation of serializing full HeapPages and
+ * BTreeLeafPages, both through getPageData(), which returns a new array,
+ * and through writePageData(ByteBuffer) into a reused buffer, the path
+ * DbFile.writePage takes on every flush.
+ * <p>
+ * Usage: <code>PageSerializationBenchmark [iterations]</code>. Allocation is
+ * measured with the HotSpot per-thread allocation counter.
+ */
+public class PageSerializationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        File hfFile = File.createTempFile("serbench", ".dat");
+        hfFile.deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(4);
+        HeapFile hf = new HeapFile(hfFile, td);
+        Database.getCatalog().addTable(hf, "heap");
+        HeapPage heapPage = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        while (heapPage.getNumEmptySlots() > 1) {
+            heapPage.insertTuple(Utility.getHeapTuple(heapPage.getNumEmptySlots(), 4));
+        }
+
+        File btFile = File.createTempFile("serbench", ".idx");
+        btFile.deleteOnExit();
+        BTreeFile bf = new BTreeFile(btFile, 0, td);
+        Database.getCatalog().addTable(bf, "btree");
+        BTreeLeafPage leafPage = new BTreeLeafPage(new BTreePageId(bf.getId(), 1, BTreePageId.LEAF),
+                BTreeLeafPage.createEmptyPageData(), 0);
+        while (leafPage.getNumEmptySlots() > 1) {
+            leafPage.insertTuple(Utility.getHeapTuple(leafPage.getNumEmptySlots(), 4));
+        }
+
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            run("HeapPage", heapPage, iterations);
+            run("BTreeLeafPage", leafPage, iterations);
+        }
+    }
+
+    private static void run(String name, Page page, int iterations) {
+        long start = System.nanoTime();
+        long bytes = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            page.getPageData();
+        }
+        report(name + ".getPageData", iterations, start, bytes);
+
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        start = System.nanoTime();
+        bytes = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            buf.clear();
+            page.writePageData(buf);
+        }
+        report(name + ".writePageData", iterations, start, bytes);
+    }
+
+    private static void report(String name, int iterations, long startNanos, long startBytes) {
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes() - startBytes;
+        System.out.printf("%-28s %8.0f ns/page %10.0f bytes allocated/page%n",
+                name, (double) nanos / iterations, (double) bytes / iterations);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Compares BufferPool replacement policies on a mixed workload: one thread
+ * does random point lookups on the pages of a small, hot table while
+ * another repeatedly scans a table several times larger than the pool. For
+ * each policy it reports the hit ratio of the lookups, which a scan-resistant
+ * policy keeps close to 1.
+ * <p>
+ * Usage: <code>ReplacementPolicyBenchmark [poolPages] [hotPages] [scanPages] [lookups]</code>.
+ * The defaults are 100, 40, 2000 and 200000.
+ */
+public class ReplacementPolicyBenchmark {
+
+    /** A HeapFile that counts the pages read from disk. */
+    private static class CountingHeapFile extends HeapFile {
+        volatile long reads;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+
+        @Override
+        public List<Page> readPages(List<PageId> pids) {
+            reads += pids.size();
+            return super.readPages(pids);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int scanPages = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int lookups = args.length > 3 ? Integer.parseInt(args[3]) : 200000;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        CountingHeapFile hot = createTable("hot", td, hotPages);
+        HeapFile big = createTable("big", td, scanPages);
+        System.out.printf("pool %d pages, hot table %d pages, scanned table %d pages, %d lookups%n",
+                poolPages, hotPages, scanPages, lookups);
+
+        String[] names = {"CLOCK", "LRU", "LRU-2"};
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (String name : names) {
+                Supplier<ReplacementPolicy> policies = name.equals("CLOCK") ? ClockPolicy::new
+                        : () -> new LruKPolicy(name.equals("LRU") ? 1 : 2);
+                run(name, policies, poolPages, hot, big, lookups);
+            }
+        }
+    }
+
+    private static CountingHeapFile createTable(String name, TupleDesc td, int pages) throws Exception {
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        CountingHeapFile hf = new CountingHeapFile(f, td);
+        Database.getCatalog().addTable(hf, name);
+        int slots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int n = pages * slots;
+        TransactionId tid = new TransactionId();
+        hf.bulkAppend(tid, new Iterator<Tuple>() {
+            int i = 0;
+
+            public boolean hasNext() {
+                return i < n;
+            }
+
+            public Tuple next() {
+                return Utility.getHeapTuple(i++, 2);
+            }
+        });
+        Database.getBufferPool().transactionComplete(tid);
+        return hf;
+    }
+
+    private static void run(String name, Supplier<ReplacementPolicy> policies, int poolPages,
+                            CountingHeapFile hot, HeapFile big, int lookups) throws Exception {
+        BufferPool bp = Database.resetBufferPool(poolPages, policies);
+        int hotPages = hot.numPages();
+
+        // load the hot table before the scan starts
+        TransactionId warm = new TransactionId();
+        for (int pgNo = 0; pgNo < hotPages; pgNo++) {
+            bp.getPage(warm, new HeapPageId(hot.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warm);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong scanned = new AtomicLong();
+        Thread scanner = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    TransactionId tid = new TransactionId();
+                    SeqScan scan = new SeqScan(tid, big.getId(), "big");
+                    scan.open();
+                    while (scan.hasNext() && !done.get()) {
+                        scan.next();
+                    }
+                    scan.close();
+                    bp.transactionComplete(tid);
+                    scanned.incrementAndGet();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+
+        Random rand = new Random(0);
+        hot.reads = 0;
+        long start = System.nanoTime();
+        scanner.start();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < lookups; i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), rand.nextInt(hotPages)), Permissions.READ_ONLY);
+            if (i % 100 == 99) {
+                bp.transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        bp.transactionComplete(tid);
+        double secs = (System.nanoTime() - start) / 1e9;
+        done.set(true);
+        scanner.join();
+
+        System.out.printf("%-6s lookup hit ratio %.4f (%d misses), %d full scans, %.2fs%n",
+                name, 1 - (double) hot.reads / lookups, hot.reads, scanned.get(), secs);
+    }
+}